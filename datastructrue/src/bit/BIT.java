@@ -1,5 +1,7 @@
 package bit;
 
+import java.util.Arrays;
+
 /**
  * 树状数组
  */
@@ -13,6 +15,22 @@ public class BIT {
         this.n = n;
     }
 
+    /**
+     * 用values批量建树，values[i]是位置i + 1上的值
+     * <p>
+     * 先用Arrays.parallelPrefix求前缀和P，每个位置 tree[i] = P[i] - P[i - lowbit(i)]，
+     * 各个位置互不依赖，并行填，O(n)，不用调n次update
+     */
+    public static BIT build(int[] values) {
+        int n = values.length;
+        int[] prefix = new int[n + 1];
+        System.arraycopy(values, 0, prefix, 1, n);
+        Arrays.parallelPrefix(prefix, Integer::sum);
+        BIT bit = new BIT(n);
+        Arrays.parallelSetAll(bit.tree, i -> i == 0 ? 0 : prefix[i] - prefix[i - (i & (-i))]);
+        return bit;
+    }
+
     public int lowbit(int x) {
         return x & (-x);
     }
@@ -0,0 +1,135 @@
+package bit;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * long版本的树状数组，可以从数组批量建树
+ * <p>
+ * 对外的下标和BIT一样从1开始，内部存成从0开始的形式：tree[i]管 [i &amp; (i + 1), i] 这一段，
+ * 父节点是 i | (i + 1)。这样调用方的数组不用在前面空出一位，可以直接拿来原地建树。
+ */
+public class LongBIT {
+
+    // 小于这个长度就不并行了
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private final long[] tree;
+    private final int n;
+
+    public LongBIT(int n) {
+        this(new long[n]);
+    }
+
+    private LongBIT(long[] tree) {
+        this.tree = tree;
+        this.n = tree.length;
+    }
+
+    /**
+     * 用values建树，values不会被修改
+     * <p>
+     * 先用Arrays.parallelPrefix求前缀和P，每个位置 tree[i] = P[i] - P[(i &amp; (i + 1)) - 1]，
+     * 各个位置互不依赖，并行填，总共O(n)
+     *
+     * @param values 第i个数是位置i + 1上的值
+     */
+    public static LongBIT build(long[] values) {
+        int n = values.length;
+        long[] prefix = values.clone();
+        long[] tree = new long[n];
+        if (n < PARALLEL_THRESHOLD) {
+            for (int i = 1; i < n; i++) {
+                prefix[i] += prefix[i - 1];
+            }
+            for (int i = 0; i < n; i++) {
+                tree[i] = rangeSum(prefix, i);
+            }
+        } else {
+            Arrays.parallelPrefix(prefix, Long::sum);
+            Arrays.parallelSetAll(tree, i -> rangeSum(prefix, i));
+        }
+        return new LongBIT(tree);
+    }
+
+    private static long rangeSum(long[] prefix, int i) {
+        int lo = i & (i + 1);
+        return lo == 0 ? prefix[i] : prefix[i] - prefix[lo - 1];
+    }
+
+    /**
+     * 直接把values原地改成树状数组，不复制，之后values归这棵树所有，调用方不要再改它
+     *
+     * @param values 第i个数是位置i + 1上的值
+     */
+    public static LongBIT wrap(long[] values) {
+        return wrap(values, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 原地建树，按层做：末尾有k个1的下标是第k层，第k层的节点把自己加到父节点 i | (i + 1) 上。
+     * 父节点末尾至少有k + 1个1，在后面的层里；同一层的父节点两两不同，所以同一层可以并行加，
+     * 每层做完就是一次同步。总共O(n)，层数是O(log n)
+     *
+     * @param values 第i个数是位置i + 1上的值
+     * @param pool   执行的线程池
+     */
+    public static LongBIT wrap(long[] values, ForkJoinPool pool) {
+        int n = values.length;
+        for (int k = 0; (1L << k) <= n; k++) {
+            // 第k层的下标是 m * 2^(k+1) + 2^k - 1
+            int low = (1 << k) - 1;
+            int step = 1 << (k + 1);
+            int count = (int) ((n - 1L - low) / step + 1);
+            if (count < PARALLEL_THRESHOLD) {
+                for (int i = low; i < n; i += step) {
+                    int parent = i | (i + 1);
+                    if (parent < n) {
+                        values[parent] += values[i];
+                    }
+                }
+            } else {
+                pool.submit(() -> IntStream.range(0, count).parallel().forEach(m -> {
+                    int i = low + m * step;
+                    int parent = i | (i + 1);
+                    if (parent < n) {
+                        values[parent] += values[i];
+                    }
+                })).join();
+            }
+        }
+        return new LongBIT(values);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * 前x个数的和
+     */
+    public long query(int x) {
+        long res = 0L;
+        for (int i = x - 1; i >= 0; i = (i & (i + 1)) - 1) {
+            res += tree[i];
+        }
+        return res;
+    }
+
+    /**
+     * [l, r]的和
+     */
+    public long query(int l, int r) {
+        return query(r) - query(l - 1);
+    }
+
+    /**
+     * 位置x加上v
+     */
+    public void update(int x, long v) {
+        for (int i = x - 1; i < n; i = i | (i + 1)) {
+            tree[i] += v;
+        }
+    }
+}
@@ -1,15 +1,42 @@
 package blancetree;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ObjLongConsumer;
+
 /**
  * 带rank的avl树
+ * <p>
+ * 可选的增强模式下，每个key可以带一个long权重，子树维护权重的和/最小值/最大值，支持O(log n)的区间聚合查询
  * @param <T>
  */
 public class AvlTree<T extends Comparable<T>> {
 
     private TreeNode<T> root;
 
+    // 是否维护子树的权重聚合
+    private final boolean augmented;
+
+    // 插入删除时记录从根往下的路径，复用同一个数组
+    private TreeNode<T>[] path;
+
     private static final int ALLOWED_IMBALANCE = 1;
 
+    // AVL树的高度不超过1.44log2(n)，节点数在long范围内时用不到96层
+    private static final int MAX_HEIGHT = 96;
+
+    // 并行集合运算中，两棵子树加起来小于这个大小就直接串行做
+    private static final long PARALLEL_THRESHOLD = 1 << 13;
+
+    private static final int UNION = 0;
+    private static final int INTERSECTION = 1;
+    private static final int DIFFERENCE = 2;
+
+    private static final int SUM = 0;
+    private static final int MIN = 1;
+    private static final int MAX = 2;
+
     private static class TreeNode<T> {
         T value;
         int height;
@@ -20,6 +47,12 @@ public class AvlTree<T extends Comparable<T>> {
         TreeNode<T> left;
         TreeNode<T> right;
 
+        // 权重按key算，和count无关；sum/min/max是子树中所有key权重的聚合，只在增强模式下维护
+        long weight;
+        long sum;
+        long min;
+        long max;
+
         public TreeNode(T value) {
             this(value,1);
         }
@@ -32,10 +65,53 @@ public class AvlTree<T extends Comparable<T>> {
         }
     }
 
+    /**
+     * split的三个返回值：小于key的子树、等于key的节点、大于key的子树
+     */
+    private static class SplitResult<T> {
+        TreeNode<T> left;
+        TreeNode<T> mid;
+        TreeNode<T> right;
+    }
+
+    public AvlTree() {
+        this(false);
+    }
+
+    /**
+     * @param augmented 是否维护权重聚合，打开后才能用setWeight和rangeSum/rangeMin/rangeMax
+     */
+    public AvlTree(boolean augmented) {
+        this.augmented = augmented;
+    }
+
     private int height(TreeNode<T> node) {
         return node == null ? -1 : node.height;
     }
 
+    private long sumOf(TreeNode<T> node) {
+        return node == null ? 0L : node.sum;
+    }
+
+    private long minOf(TreeNode<T> node) {
+        return node == null ? Long.MAX_VALUE : node.min;
+    }
+
+    private long maxOf(TreeNode<T> node) {
+        return node == null ? Long.MIN_VALUE : node.max;
+    }
+
+    /**
+     * 用孩子的聚合值重新计算node的聚合值，孩子必须已经是对的
+     */
+    private void pull(TreeNode<T> node) {
+        if (augmented) {
+            node.sum = sumOf(node.left) + sumOf(node.right) + node.weight;
+            node.min = Math.min(node.weight, Math.min(minOf(node.left), minOf(node.right)));
+            node.max = Math.max(node.weight, Math.max(maxOf(node.left), maxOf(node.right)));
+        }
+    }
+
     private long getSize(TreeNode<T> node) {
         return node == null ? 0 : node.size;
     }
@@ -159,23 +235,35 @@ public class AvlTree<T extends Comparable<T>> {
     }
 
     public void insert(T x,long cnt) {
-        root = insert(root,x,cnt);
-    }
-
-    private TreeNode<T> insert(TreeNode<T> root,T x,long cnt) {
         if(root == null) {
-            return new TreeNode<>(x,cnt);
-        }
-        root.size += cnt;
-        int cmp = x.compareTo(root.value);
-        if(cmp < 0) {
-            root.left = insert(root.left,x,cnt);
-        } else if(cmp > 0) {
-            root.right = insert(root.right,x,cnt);
-        } else {
-            root.count += cnt;
+            root = new TreeNode<>(x,cnt);
+            return;
         }
-        return balance(root);
+        TreeNode<T>[] path = path();
+        int depth = 0;
+        TreeNode<T> node = root;
+        while (true) {
+            node.size += cnt;
+            path[depth++] = node;
+            int cmp = x.compareTo(node.value);
+            if(cmp == 0) {
+                // 只是个数变了，树的结构和权重都没变
+                node.count += cnt;
+                Arrays.fill(path, 0, depth, null);
+                return;
+            }
+            TreeNode<T> next = cmp < 0 ? node.left : node.right;
+            if(next == null) {
+                if(cmp < 0) {
+                    node.left = new TreeNode<>(x,cnt);
+                } else {
+                    node.right = new TreeNode<>(x,cnt);
+                }
+                break;
+            }
+            node = next;
+        }
+        rebalance(path,depth);
     }
 
     public void delete(T x) {
@@ -183,43 +271,103 @@ public class AvlTree<T extends Comparable<T>> {
     }
 
     public void delete(T x,long cnt) {
-        root = delete(root,x,cnt);
+        TreeNode<T>[] path = path();
+        int depth = 0;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if(cmp == 0) {
+                break;
+            }
+            path[depth++] = node;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        if(node == null) {
+            Arrays.fill(path, 0, depth, null);
+            return;
+        }
+        if(node.count > cnt) {
+            node.count -= cnt;
+            node.size -= cnt;
+            for (int i = 0; i < depth; i++) {
+                path[i].size -= cnt;
+            }
+            Arrays.fill(path, 0, depth, null);
+            return;
+        }
+        // 整个节点都要删掉，先把路径上的size减掉
+        long removed = node.count;
+        for (int i = 0; i < depth; i++) {
+            path[i].size -= removed;
+        }
+        if(node.left == null || node.right == null) {
+            replaceChild(path,depth,node,node.left == null ? node.right : node.left);
+        } else {
+            // 找当前节点的后继，后继的属性搬到当前节点，再把后继摘掉
+            node.size -= removed;
+            path[depth++] = node;
+            int from = depth;
+            TreeNode<T> rightMin = node.right;
+            while (rightMin.left != null) {
+                path[depth++] = rightMin;
+                rightMin = rightMin.left;
+            }
+            // 当前节点到后继之间的节点少了后继的个数
+            for (int i = from; i < depth; i++) {
+                path[i].size -= rightMin.count;
+            }
+            node.value = rightMin.value;
+            node.weight = rightMin.weight;
+            node.count = rightMin.count;
+            replaceChild(path,depth,rightMin,rightMin.right);
+        }
+        rebalance(path,depth);
     }
 
-    private TreeNode<T> delete(TreeNode<T> root,T x,long cnt) {
-        if(root == null) {
-            return null;
+    /**
+     * 从被修改位置的父节点开始往根走，逐个balance
+     * <p>
+     * 某个子树balance之后高度和原来一样，上面的节点的平衡因子就不会变了，直接停下；
+     * 增强模式下权重聚合还是要一路更新到根
+     */
+    private void rebalance(TreeNode<T>[] path,int depth) {
+        boolean heightChanged = true;
+        for (int i = depth - 1; i >= 0; i--) {
+            TreeNode<T> node = path[i];
+            if(!heightChanged) {
+                if(!augmented) {
+                    break;
+                }
+                pull(node);
+                continue;
+            }
+            int oldHeight = node.height;
+            TreeNode<T> newRoot = balance(node);
+            if(newRoot != node) {
+                replaceChild(path,i,node,newRoot);
+            }
+            heightChanged = newRoot.height != oldHeight;
         }
-        int cmp = x.compareTo(root.value);
-        if(cmp < 0) {
-            root.left = delete(root.left,x,cnt);
-        } else if(cmp > 0){
-            root.right = delete(root.right,x,cnt);
+        Arrays.fill(path, 0, depth, null);
+    }
+
+    // 把path[depth - 1]中的孩子child换成replacement，depth为0表示child是根
+    private void replaceChild(TreeNode<T>[] path,int depth,TreeNode<T> child,TreeNode<T> replacement) {
+        if(depth == 0) {
+            root = replacement;
+        } else if(path[depth - 1].left == child) {
+            path[depth - 1].left = replacement;
         } else {
-            if(root.count > cnt) {
-                root.size -= cnt;
-                root.count -= cnt;
-                return root;
-            }
-            if(root.left == null || root.right == null) {
-                root.size = 0;
-                root.count = 0;
-                root = root.left == null ? root.right : root.left;
-                return balance(root);
-            } else {
-                // 找当前节点的后继
-                TreeNode<T> rightMin = findMin(root.right);
-                // 属性替换
-                root.value = rightMin.value;
-                root.count = rightMin.count;
-                // 后继节点变为cnt个
-                rightMin.count = cnt;
-                // 去删除后继
-                root.right = delete(root.right,root.value,cnt);
-            }
+            path[depth - 1].right = replacement;
         }
-        root.size = getSize(root.left) + getSize(root.right) + root.count;
-        return balance(root);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private TreeNode<T>[] path() {
+        if(path == null) {
+            path = (TreeNode<T>[]) new TreeNode[MAX_HEIGHT];
+        }
+        return path;
     }
 
     private TreeNode<T> balance(TreeNode<T> root) {
@@ -238,9 +386,16 @@ public class AvlTree<T extends Comparable<T>> {
             root = leftRotate(root);
         }
         root.height = Math.max(height(root.left),height(root.right)) + 1;
+        pull(root);
         return root;
     }
 
+    /**
+     * x的排名，从1开始，ret[0]表示第一个x的rank，ret[1]表示最后一个x的rank
+     * <p>
+     * x不存在时都是-1，这是一开始就有的行为，为了兼容保留下来；
+     * 后来加的rankOf和其他树的rank一样，不存在时返回0
+     */
     public long[] rank(T x) {
         TreeNode<T> node = root;
         long ans = 0L;
@@ -261,41 +416,217 @@ public class AvlTree<T extends Comparable<T>> {
 
     // 返回排名为k的元素(从小到大)
     public T kth(long k) {
-        return kth(root, k);
+        TreeNode<T> node = root;
+        while (node != null) {
+            long leftRank = getSize(node.left);
+            long curRank = leftRank + node.count;
+            if (k <= leftRank) {
+                node = node.left;
+            } else if (k <= curRank) {
+                return node.value;
+            } else {
+                k -= curRank;
+                node = node.right;
+            }
+        }
+        return null;
     }
 
-    private T kth(TreeNode<T> root, long k) {
-        if (root == null) {
-            return null;
+    // 返回排名为k的元素(从大到小)
+    public T reverseKth(long k) {
+        TreeNode<T> node = root;
+        while (node != null) {
+            long rightRank = getSize(node.right);
+            long curRank = rightRank + node.count;
+            if (k <= rightRank) {
+                node = node.right;
+            } else if (k <= curRank) {
+                return node.value;
+            } else {
+                k -= curRank;
+                node = node.left;
+            }
         }
-        long leftRank = getSize(root.left);
-        long curRank = leftRank + root.count;
-        if (k <= leftRank) {
-            return kth(root.left, k);
-        } else if (k <= curRank) {
-            return root.value;
-        } else {
-            return kth(root.right, k - curRank);
+        return null;
+    }
+
+    /**
+     * x第一次出现的排名，x存在时和rank(x)[0]一样，但是不分配数组
+     *
+     * @param x 查询的元素
+     * @return 排名，从1开始，x不存在返回0(和其他树的rank一致，不同于rank(x)的-1)
+     */
+    public long rankOf(T x) {
+        TreeNode<T> node = root;
+        long ans = 0L;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                ans += getSize(node.left) + node.count;
+                node = node.right;
+            } else {
+                return ans + getSize(node.left) + 1;
+            }
         }
+        return 0L;
     }
 
-    // 返回排名为k的元素(从大到小)
-    public T reverseKth(long k) {
-        return reverseKth(root, k);
+    /**
+     * 统计落在[lo, hi]中的元素个数(重复元素按个数算)
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return 元素个数
+     */
+    public long countInRange(T lo, T hi) {
+        if (lo.compareTo(hi) > 0) {
+            return 0L;
+        }
+        return countLess(hi, true) - countLess(lo, false);
     }
 
-    private T reverseKth(TreeNode<T> root, long k) {
-        if (root == null) {
-            return null;
+    // 小于x(inclusive为true时是小于等于)的元素个数
+    private long countLess(T x, boolean inclusive) {
+        TreeNode<T> node = root;
+        long ans = 0L;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                node = node.left;
+            } else {
+                ans += getSize(node.left) + node.count;
+                node = node.right;
+            }
         }
-        long rightRank = getSize(root.right);
-        long curRank = rightRank + root.count;
-        if (k <= rightRank) {
-            return reverseKth(root.right, k);
-        } else if (k <= curRank) {
-            return root.value;
+        return ans;
+    }
+
+    /**
+     * 设置x的权重，需要增强模式
+     *
+     * @param x      元素
+     * @param weight 权重
+     * @return x不存在返回false
+     */
+    public boolean setWeight(T x, long weight) {
+        checkAugmented();
+        return setWeight(root, x, weight);
+    }
+
+    private boolean setWeight(TreeNode<T> node, T x, long weight) {
+        if (node == null) {
+            return false;
+        }
+        int cmp = x.compareTo(node.value);
+        boolean found;
+        if (cmp == 0) {
+            node.weight = weight;
+            found = true;
         } else {
-            return reverseKth(root.left, k - curRank);
+            found = setWeight(cmp < 0 ? node.left : node.right, x, weight);
+        }
+        if (found) {
+            pull(node);
+        }
+        return found;
+    }
+
+    /**
+     * [lo, hi]中所有key的权重和，需要增强模式
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return 权重和，区间为空返回0
+     */
+    public long rangeSum(T lo, T hi) {
+        return aggregate(lo, hi, SUM);
+    }
+
+    /**
+     * [lo, hi]中所有key的最小权重，需要增强模式
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return 最小权重，区间为空返回Long.MAX_VALUE
+     */
+    public long rangeMin(T lo, T hi) {
+        return aggregate(lo, hi, MIN);
+    }
+
+    /**
+     * [lo, hi]中所有key的最大权重，需要增强模式
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return 最大权重，区间为空返回Long.MIN_VALUE
+     */
+    public long rangeMax(T lo, T hi) {
+        return aggregate(lo, hi, MAX);
+    }
+
+    /**
+     * 先找到第一个落在[lo, hi]中的节点，再分别沿着lo和hi的查找路径往下走，
+     * 路径上整棵落在区间里的子树直接用它的聚合值，O(log n)
+     */
+    private long aggregate(T lo, T hi, int op) {
+        checkAugmented();
+        long res = op == SUM ? 0L : (op == MIN ? Long.MAX_VALUE : Long.MIN_VALUE);
+        TreeNode<T> node = root;
+        while (node != null) {
+            if (node.value.compareTo(lo) < 0) {
+                node = node.right;
+            } else if (node.value.compareTo(hi) > 0) {
+                node = node.left;
+            } else {
+                break;
+            }
+        }
+        if (node == null) {
+            return res;
+        }
+        res = combine(op, res, node.weight);
+        // 左半边：node.left中大于等于lo的部分
+        TreeNode<T> cur = node.left;
+        while (cur != null) {
+            if (cur.value.compareTo(lo) >= 0) {
+                res = combine(op, res, cur.weight);
+                if (cur.right != null) {
+                    res = combine(op, res, aggregateOf(op, cur.right));
+                }
+                cur = cur.left;
+            } else {
+                cur = cur.right;
+            }
+        }
+        // 右半边：node.right中小于等于hi的部分
+        cur = node.right;
+        while (cur != null) {
+            if (cur.value.compareTo(hi) <= 0) {
+                res = combine(op, res, cur.weight);
+                if (cur.left != null) {
+                    res = combine(op, res, aggregateOf(op, cur.left));
+                }
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
+        return res;
+    }
+
+    private long aggregateOf(int op, TreeNode<T> node) {
+        return op == SUM ? node.sum : (op == MIN ? node.min : node.max);
+    }
+
+    private long combine(int op, long a, long b) {
+        return op == SUM ? a + b : (op == MIN ? Math.min(a, b) : Math.max(a, b));
+    }
+
+    private void checkAugmented() {
+        if (!augmented) {
+            throw new IllegalStateException("weight aggregation is not enabled for this tree");
         }
     }
 
@@ -309,6 +640,8 @@ public class AvlTree<T extends Comparable<T>> {
         root.size = preSize;
         node.height = Math.max(height(node.left),height(node.right)) + 1;
         root.height = Math.max(height(root.right),height(node)) + 1;
+        pull(node);
+        pull(root);
         return root;
     }
 
@@ -322,6 +655,8 @@ public class AvlTree<T extends Comparable<T>> {
         root.size = preSize;
         node.height = Math.max(height(node.left),height(node.right)) + 1;
         root.height = Math.max(height(root.left),height(node)) + 1;
+        pull(node);
+        pull(root);
         return root;
     }
 
@@ -361,4 +696,368 @@ public class AvlTree<T extends Comparable<T>> {
         }
         return node;
     }
+
+    /**
+     * 按从小到大的顺序遍历每个key和它的个数
+     *
+     * @param action 回调，参数是key和个数
+     */
+    public void forEach(ObjLongConsumer<? super T> action) {
+        forEach(root, action);
+    }
+
+    private void forEach(TreeNode<T> node, ObjLongConsumer<? super T> action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.value, node.count);
+            node = node.right;
+        }
+    }
+
+    /**
+     * 用严格递增的key直接建树，原来的节点都会被丢弃
+     * <p>
+     * 每次取中间的key做根，左右两边递归，得到的树左右高度差不超过1，不需要比较和旋转，O(n)。
+     * 增强模式下权重都是0
+     *
+     * @param keys   严格递增的key
+     * @param counts 每个key的个数，为null时都是1
+     * @param n      key的个数
+     */
+    public void buildFromSorted(T[] keys, long[] counts, int n) {
+        root = buildFromSorted(keys, counts, 0, n - 1);
+    }
+
+    private TreeNode<T> buildFromSorted(T[] keys, long[] counts, int lo, int hi) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        TreeNode<T> node = new TreeNode<>(keys[mid], counts == null ? 1 : counts[mid]);
+        node.left = buildFromSorted(keys, counts, lo, mid - 1);
+        node.right = buildFromSorted(keys, counts, mid + 1, hi);
+        node.size = getSize(node.left) + getSize(node.right) + node.count;
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+        pull(node);
+        return node;
+    }
+
+    /**
+     * 按key把树拆成两棵，当前树保留小于key的部分，返回大于等于key的部分，O(log n)
+     *
+     * @param key 拆分的key
+     * @return 大于等于key的树
+     */
+    public AvlTree<T> split(T key) {
+        SplitResult<T> res = new SplitResult<>();
+        split(root, key, res);
+        AvlTree<T> right = new AvlTree<>(augmented);
+        right.root = res.mid == null ? res.right : join(null, res.mid, res.right);
+        root = res.left;
+        return right;
+    }
+
+    /**
+     * 用pivot连接两棵树，left中的元素都小于pivot，right中的元素都大于pivot，O(|h(left) - h(right)|)
+     * <p>
+     * left和right的节点直接挂到结果中，调用后这两棵树被清空
+     *
+     * @param left  左边的树
+     * @param pivot 中间的元素
+     * @param right 右边的树
+     * @return 连接后的树
+     */
+    public static <T extends Comparable<T>> AvlTree<T> join(AvlTree<T> left, T pivot, AvlTree<T> right) {
+        AvlTree<T> tree = new AvlTree<>(left.augmented);
+        tree.root = tree.join(left.root, new TreeNode<>(pivot), right.root);
+        left.root = null;
+        right.root = null;
+        return tree;
+    }
+
+    /**
+     * 把right拼接到当前树的后面，right中的元素都大于当前树中的元素，O(log n)，调用后right被清空
+     *
+     * @param right 右边的树
+     */
+    public void concat(AvlTree<T> right) {
+        root = join2(root, right.root);
+        right.root = null;
+    }
+
+    /**
+     * 并集，相同元素的个数相加(和把other中的元素逐个insert进来结果一样)，调用后other被清空
+     * <p>
+     * 基于split/join，O(m log(n/m + 1))，m为较小的树的大小
+     *
+     * @param other 另一棵树
+     */
+    public void union(AvlTree<T> other) {
+        root = union(root, other.root, new SplitResult<>());
+        other.root = null;
+    }
+
+    /**
+     * 交集，相同元素的个数取较小值，调用后other被清空
+     *
+     * @param other 另一棵树
+     */
+    public void intersection(AvlTree<T> other) {
+        root = intersection(root, other.root, new SplitResult<>());
+        other.root = null;
+    }
+
+    /**
+     * 差集，相同元素的个数相减，减到0就删掉(和把other中的元素逐个delete结果一样)，调用后other被清空
+     *
+     * @param other 另一棵树
+     */
+    public void difference(AvlTree<T> other) {
+        root = difference(root, other.root, new SplitResult<>());
+        other.root = null;
+    }
+
+    /**
+     * 并行版本的union，在commonPool中分治执行
+     *
+     * @param other 另一棵树
+     */
+    public void unionAll(AvlTree<T> other) {
+        unionAll(other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行版本的union
+     * <p>
+     * 用一棵树的根去split另一棵树，左右两边互不相交，分别作为子任务fork出去，最后用join合并，
+     * 总工作量和串行版本一样，跨度是O(log^2 n)
+     *
+     * @param other 另一棵树
+     * @param pool  执行的线程池
+     */
+    public void unionAll(AvlTree<T> other, ForkJoinPool pool) {
+        root = pool.invoke(new SetOperationTask(UNION, root, other.root));
+        other.root = null;
+    }
+
+    /**
+     * 并行版本的intersection，在commonPool中分治执行
+     *
+     * @param other 另一棵树
+     */
+    public void intersect(AvlTree<T> other) {
+        intersect(other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行版本的intersection
+     *
+     * @param other 另一棵树
+     * @param pool  执行的线程池
+     */
+    public void intersect(AvlTree<T> other, ForkJoinPool pool) {
+        root = pool.invoke(new SetOperationTask(INTERSECTION, root, other.root));
+        other.root = null;
+    }
+
+    /**
+     * 并行版本的difference，在commonPool中分治执行
+     *
+     * @param other 另一棵树
+     */
+    public void subtract(AvlTree<T> other) {
+        subtract(other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行版本的difference
+     *
+     * @param other 另一棵树
+     * @param pool  执行的线程池
+     */
+    public void subtract(AvlTree<T> other, ForkJoinPool pool) {
+        root = pool.invoke(new SetOperationTask(DIFFERENCE, root, other.root));
+        other.root = null;
+    }
+
+    /**
+     * 集合运算的分治任务，每个任务只碰自己那两棵子树的节点，任务之间没有共享状态
+     */
+    private final class SetOperationTask extends RecursiveTask<TreeNode<T>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int op;
+        private final TreeNode<T> t1;
+        private final TreeNode<T> t2;
+
+        SetOperationTask(int op, TreeNode<T> t1, TreeNode<T> t2) {
+            this.op = op;
+            this.t1 = t1;
+            this.t2 = t2;
+        }
+
+        @Override
+        protected TreeNode<T> compute() {
+            SplitResult<T> res = new SplitResult<>();
+            if (t1 == null || t2 == null || getSize(t1) + getSize(t2) < PARALLEL_THRESHOLD) {
+                if (op == UNION) {
+                    return union(t1, t2, res);
+                } else if (op == INTERSECTION) {
+                    return intersection(t1, t2, res);
+                }
+                return difference(t1, t2, res);
+            }
+            // union和intersection用t1的根拆t2，difference用t2的根拆t1
+            TreeNode<T> pivot = op == DIFFERENCE ? t2 : t1;
+            split(op == DIFFERENCE ? t1 : t2, pivot.value, res);
+            TreeNode<T> mid = res.mid;
+            SetOperationTask leftTask = op == DIFFERENCE
+                    ? new SetOperationTask(op, res.left, pivot.left)
+                    : new SetOperationTask(op, pivot.left, res.left);
+            SetOperationTask rightTask = op == DIFFERENCE
+                    ? new SetOperationTask(op, res.right, pivot.right)
+                    : new SetOperationTask(op, pivot.right, res.right);
+            leftTask.fork();
+            TreeNode<T> right = rightTask.compute();
+            TreeNode<T> left = leftTask.join();
+            if (op == UNION) {
+                if (mid != null) {
+                    pivot.count += mid.count;
+                }
+                return AvlTree.this.join(left, pivot, right);
+            } else if (op == INTERSECTION) {
+                if (mid == null) {
+                    return join2(left, right);
+                }
+                pivot.count = Math.min(pivot.count, mid.count);
+                return AvlTree.this.join(left, pivot, right);
+            }
+            if (mid == null || mid.count <= pivot.count) {
+                return join2(left, right);
+            }
+            mid.count -= pivot.count;
+            return AvlTree.this.join(left, mid, right);
+        }
+    }
+
+    private TreeNode<T> union(TreeNode<T> t1, TreeNode<T> t2, SplitResult<T> res) {
+        if (t1 == null) {
+            return t2;
+        }
+        if (t2 == null) {
+            return t1;
+        }
+        split(t2, t1.value, res);
+        TreeNode<T> l2 = res.left, mid = res.mid, r2 = res.right;
+        TreeNode<T> left = union(t1.left, l2, res);
+        TreeNode<T> right = union(t1.right, r2, res);
+        if (mid != null) {
+            t1.count += mid.count;
+        }
+        return join(left, t1, right);
+    }
+
+    private TreeNode<T> intersection(TreeNode<T> t1, TreeNode<T> t2, SplitResult<T> res) {
+        if (t1 == null || t2 == null) {
+            return null;
+        }
+        split(t2, t1.value, res);
+        TreeNode<T> l2 = res.left, mid = res.mid, r2 = res.right;
+        TreeNode<T> left = intersection(t1.left, l2, res);
+        TreeNode<T> right = intersection(t1.right, r2, res);
+        if (mid == null) {
+            return join2(left, right);
+        }
+        t1.count = Math.min(t1.count, mid.count);
+        return join(left, t1, right);
+    }
+
+    private TreeNode<T> difference(TreeNode<T> t1, TreeNode<T> t2, SplitResult<T> res) {
+        if (t1 == null || t2 == null) {
+            return t1;
+        }
+        split(t1, t2.value, res);
+        TreeNode<T> l1 = res.left, mid = res.mid, r1 = res.right;
+        TreeNode<T> left = difference(l1, t2.left, res);
+        TreeNode<T> right = difference(r1, t2.right, res);
+        if (mid == null || mid.count <= t2.count) {
+            return join2(left, right);
+        }
+        mid.count -= t2.count;
+        return join(left, mid, right);
+    }
+
+    /**
+     * 把node拆成小于x的子树、等于x的节点、大于x的子树，结果放在res里
+     */
+    private void split(TreeNode<T> node, T x, SplitResult<T> res) {
+        if (node == null) {
+            res.left = res.mid = res.right = null;
+            return;
+        }
+        int cmp = x.compareTo(node.value);
+        if (cmp == 0) {
+            res.left = node.left;
+            res.mid = node;
+            res.right = node.right;
+        } else if (cmp < 0) {
+            TreeNode<T> right = node.right;
+            split(node.left, x, res);
+            res.right = join(res.right, node, right);
+        } else {
+            TreeNode<T> left = node.left;
+            split(node.right, x, res);
+            res.left = join(left, node, res.left);
+        }
+    }
+
+    /**
+     * 以mid为中间节点连接left和right，沿着较高那棵树的边往下走，走到高度差不超过1的位置挂上去，
+     * 往回的路上和插入一样做balance，O(|h(left) - h(right)|)
+     */
+    private TreeNode<T> join(TreeNode<T> left, TreeNode<T> mid, TreeNode<T> right) {
+        int hl = height(left), hr = height(right);
+        if (hl > hr + ALLOWED_IMBALANCE) {
+            left.right = join(left.right, mid, right);
+            left.size = getSize(left.left) + getSize(left.right) + left.count;
+            return balance(left);
+        }
+        if (hr > hl + ALLOWED_IMBALANCE) {
+            right.left = join(left, mid, right.left);
+            right.size = getSize(right.left) + getSize(right.right) + right.count;
+            return balance(right);
+        }
+        mid.left = left;
+        mid.right = right;
+        mid.size = getSize(left) + getSize(right) + mid.count;
+        mid.height = Math.max(hl, hr) + 1;
+        pull(mid);
+        return mid;
+    }
+
+    /**
+     * 没有中间节点的连接，先把left的最大节点摘下来当中间节点
+     */
+    private TreeNode<T> join2(TreeNode<T> left, TreeNode<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        SplitResult<T> res = new SplitResult<>();
+        TreeNode<T> rest = splitLast(left, res);
+        return join(rest, res.mid, right);
+    }
+
+    // 摘掉最大节点，摘下的节点放在res.mid
+    private TreeNode<T> splitLast(TreeNode<T> node, SplitResult<T> res) {
+        if (node.right == null) {
+            res.mid = node;
+            return node.left;
+        }
+        node.right = splitLast(node.right, res);
+        node.size -= res.mid.count;
+        return balance(node);
+    }
 }
@@ -0,0 +1,227 @@
+package blancetree;
+
+/**
+ * 无旋treap(FHQ treap)，所有操作都由split和merge拼出来，期望O(log n)
+ * <p>
+ * 和Treap不同，重复元素各占一个节点，排名直接由子树大小算出
+ */
+public class FhqTreap<T extends Comparable<T>> {
+
+    private static class TreeNode<T> {
+        T value;
+        int priority;
+        int size;// 以他为root的子树节点个数
+        TreeNode<T> left;
+        TreeNode<T> right;
+
+        TreeNode(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+
+        void pushUp() {
+            size = (left == null ? 0 : left.size) + (right == null ? 0 : right.size) + 1;
+        }
+    }
+
+    private TreeNode<T> root;
+
+    // splitTree的两个返回值
+    private TreeNode<T> lo, hi;
+
+    private final PriorityGenerator<? super T> priorities;
+
+    public FhqTreap() {
+        this(PriorityGenerator.xorShift());
+    }
+
+    /**
+     * 固定种子，同样的操作序列得到同样形状的树
+     *
+     * @param seed 种子
+     */
+    public FhqTreap(long seed) {
+        this(PriorityGenerator.seeded(seed));
+    }
+
+    /**
+     * @param priorities 优先级来源，不能是keyHash：重复元素各占一个节点，它们的优先级会全都相同，树退化成链
+     * @throws IllegalArgumentException priorities是keyHash
+     */
+    public FhqTreap(PriorityGenerator<? super T> priorities) {
+        if (priorities instanceof PriorityGenerator.KeyHash) {
+            throw new IllegalArgumentException("keyHash priorities degrade on duplicate keys");
+        }
+        this.priorities = priorities;
+    }
+
+    public int getSize() {
+        return root == null ? 0 : root.size;
+    }
+
+    public void insert(T x) {
+        splitTree(root, x, false);
+        TreeNode<T> right = hi;
+        root = merge(merge(lo, new TreeNode<>(x, priorities.next(x))), right);
+    }
+
+    // 删除一个x
+    public void delete(T x) {
+        splitTree(root, x, false);
+        TreeNode<T> left = lo;
+        splitTree(hi, x, true);
+        TreeNode<T> mid = lo, right = hi;
+        if (mid != null) {
+            mid = merge(mid.left, mid.right);
+        }
+        root = merge(merge(left, mid), right);
+    }
+
+    public boolean contains(T x) {
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return true;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    /**
+     * 按key把树拆成两棵，当前树保留小于key的部分，返回大于等于key的部分，期望O(log n)
+     *
+     * @param key 拆分的key
+     * @return 大于等于key的树
+     */
+    public FhqTreap<T> split(T key) {
+        splitTree(root, key, false);
+        // 拆出来的树用自己的优先级实例，两棵树不共享状态
+        FhqTreap<T> right = new FhqTreap<T>(priorities.fork());
+        root = lo;
+        right.root = hi;
+        return right;
+    }
+
+    /**
+     * 把right接到当前树的后面，right中的元素都不小于当前树中的元素，期望O(log n)，调用后right被清空
+     *
+     * @param right 右边的树
+     */
+    public void merge(FhqTreap<T> right) {
+        root = merge(root, right.root);
+        right.root = null;
+    }
+
+    // 返回第一个x的排名，从1开始，x不存在返回0
+    public int rank(T x) {
+        TreeNode<T> node = root;
+        int ans = 0;
+        boolean found = false;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp <= 0) {
+                found |= cmp == 0;
+                node = node.left;
+            } else {
+                ans += (node.left == null ? 0 : node.left.size) + 1;
+                node = node.right;
+            }
+        }
+        return found ? ans + 1 : 0;
+    }
+
+    // 返回排名为k的元素(从小到大)
+    public T kth(int k) {
+        TreeNode<T> node = root;
+        while (node != null) {
+            int leftRank = node.left == null ? 0 : node.left.size;
+            if (k <= leftRank) {
+                node = node.left;
+            } else if (k == leftRank + 1) {
+                return node.value;
+            } else {
+                k -= leftRank + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    // 第一个小于等于x的数
+    public T floor(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return node.value;
+            } else if (cmp < 0) {
+                node = node.left;
+            } else {
+                ret = node.value;
+                node = node.right;
+            }
+        }
+        return ret;
+    }
+
+    // 第一个大于等于x的数
+    public T ceiling(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return node.value;
+            } else if (cmp < 0) {
+                ret = node.value;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 按值拆分，结果放在lo和hi里；inclusive为false时lo中是小于key的节点，为true时是小于等于key的节点
+     */
+    private void splitTree(TreeNode<T> node, T key, boolean inclusive) {
+        if (node == null) {
+            lo = hi = null;
+            return;
+        }
+        int cmp = node.value.compareTo(key);
+        if (cmp < 0 || (cmp == 0 && inclusive)) {
+            splitTree(node.right, key, inclusive);
+            node.right = lo;
+            lo = node;
+        } else {
+            splitTree(node.left, key, inclusive);
+            node.left = hi;
+            hi = node;
+        }
+        node.pushUp();
+    }
+
+    // a中的元素都不大于b中的元素，优先级大的做根
+    private TreeNode<T> merge(TreeNode<T> a, TreeNode<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.pushUp();
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.pushUp();
+        return b;
+    }
+}
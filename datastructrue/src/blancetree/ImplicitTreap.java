@@ -0,0 +1,236 @@
+package blancetree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 隐式key的无旋treap，当作可以任意位置编辑的序列(rope)来用
+ * <p>
+ * 节点不存key，元素的下标就是中序遍历的位置，由左子树大小算出来。
+ * 按下标split/merge都是期望O(log n)，所以任意位置插入、区间删除都不需要搬动数组；
+ * 区间翻转打懒标记，访问到节点时再往下推
+ */
+public class ImplicitTreap<T> {
+
+    private static class TreeNode<T> {
+        T value;
+        int priority;
+        int size;// 以他为root的子树节点个数
+        boolean reversed;// 懒标记：子树需要翻转，自身的左右孩子还没交换
+        TreeNode<T> left;
+        TreeNode<T> right;
+
+        TreeNode(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+
+        void pushUp() {
+            size = (left == null ? 0 : left.size) + (right == null ? 0 : right.size) + 1;
+        }
+
+        void pushDown() {
+            if (reversed) {
+                TreeNode<T> temp = left;
+                left = right;
+                right = temp;
+                if (left != null) {
+                    left.reversed = !left.reversed;
+                }
+                if (right != null) {
+                    right.reversed = !right.reversed;
+                }
+                reversed = false;
+            }
+        }
+    }
+
+    private TreeNode<T> root;
+
+    // splitTree的两个返回值
+    private TreeNode<T> lo, hi;
+
+    private final PriorityGenerator<? super T> priorities;
+
+    public ImplicitTreap() {
+        this(PriorityGenerator.xorShift());
+    }
+
+    /**
+     * 固定种子，同样的操作序列得到同样形状的树
+     *
+     * @param seed 种子
+     */
+    public ImplicitTreap(long seed) {
+        this(PriorityGenerator.seeded(seed));
+    }
+
+    /**
+     * @param priorities 优先级来源，不能是keyHash：下标才是key，优先级按元素的值算的话，相同的值优先级全都相同，树退化成链
+     * @throws IllegalArgumentException priorities是keyHash
+     */
+    public ImplicitTreap(PriorityGenerator<? super T> priorities) {
+        if (priorities instanceof PriorityGenerator.KeyHash) {
+            throw new IllegalArgumentException("keyHash priorities degrade on duplicate values");
+        }
+        this.priorities = priorities;
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    // 追加到末尾
+    public void add(T value) {
+        root = merge(root, new TreeNode<>(value, priorities.next(value)));
+    }
+
+    /**
+     * 在index位置插入，原来index及之后的元素后移
+     *
+     * @param index 插入的位置，从0开始，可以等于size
+     * @param value 元素
+     */
+    public void insert(int index, T value) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        splitTree(root, index);
+        TreeNode<T> right = hi;
+        root = merge(merge(lo, new TreeNode<>(value, priorities.next(value))), right);
+    }
+
+    public T get(int index) {
+        return nodeAt(index).value;
+    }
+
+    public T set(int index, T value) {
+        TreeNode<T> node = nodeAt(index);
+        T old = node.value;
+        node.value = value;
+        return old;
+    }
+
+    /**
+     * 删除下标在[from, to]中的元素
+     *
+     * @param from 起始下标，包含
+     * @param to   结束下标，包含
+     */
+    public void deleteRange(int from, int to) {
+        checkRange(from, to);
+        splitTree(root, to + 1);
+        TreeNode<T> right = hi;
+        splitTree(lo, from);
+        root = merge(lo, right);
+    }
+
+    /**
+     * 翻转下标在[from, to]中的元素，只在拆出来的子树根上打标记，期望O(log n)
+     *
+     * @param from 起始下标，包含
+     * @param to   结束下标，包含
+     */
+    public void reverse(int from, int to) {
+        checkRange(from, to);
+        splitTree(root, to + 1);
+        TreeNode<T> right = hi;
+        splitTree(lo, from);
+        TreeNode<T> left = lo, mid = hi;
+        mid.reversed = !mid.reversed;
+        root = merge(merge(left, mid), right);
+    }
+
+    /**
+     * 按下标从小到大遍历
+     *
+     * @param action 回调
+     */
+    public void forEach(Consumer<? super T> action) {
+        forEach(root, action);
+    }
+
+    public List<T> toList() {
+        List<T> list = new ArrayList<>(size());
+        forEach(list::add);
+        return list;
+    }
+
+    private void forEach(TreeNode<T> node, Consumer<? super T> action) {
+        if (node == null) {
+            return;
+        }
+        node.pushDown();
+        forEach(node.left, action);
+        action.accept(node.value);
+        forEach(node.right, action);
+    }
+
+    private TreeNode<T> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        TreeNode<T> node = root;
+        while (true) {
+            node.pushDown();
+            int leftSize = node.left == null ? 0 : node.left.size;
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to >= size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "], Size: " + size());
+        }
+    }
+
+    /**
+     * 按个数拆分，lo中是前k个元素，hi中是剩下的
+     */
+    private void splitTree(TreeNode<T> node, int k) {
+        if (node == null) {
+            lo = hi = null;
+            return;
+        }
+        node.pushDown();
+        int leftSize = node.left == null ? 0 : node.left.size;
+        if (leftSize < k) {
+            splitTree(node.right, k - leftSize - 1);
+            node.right = lo;
+            lo = node;
+        } else {
+            splitTree(node.left, k);
+            node.left = hi;
+            hi = node;
+        }
+        node.pushUp();
+    }
+
+    private TreeNode<T> merge(TreeNode<T> a, TreeNode<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.pushDown();
+            a.right = merge(a.right, b);
+            a.pushUp();
+            return a;
+        }
+        b.pushDown();
+        b.left = merge(a, b.left);
+        b.pushUp();
+        return b;
+    }
+}
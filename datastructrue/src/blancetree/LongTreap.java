@@ -0,0 +1,454 @@
+package blancetree;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * key为long的树堆(可重复)，节点存放在并行的原始类型数组中
+ * <p>
+ * 和Treap一样，相同的key放在同一个节点里计数。keys/pri/cnt/size/left/right是并行数组，
+ * 下标0表示空节点，size[0]恒为0，所以算子树大小时不用判空。
+ * 删除的槽位挂在空闲链表上(借用left数组串起来)，插入时优先复用。
+ * <p>
+ * 每个节点占用 8(key) + 20(优先级、计数、大小、两个下标) 字节，没有对象头和装箱，查询也不分配内存
+ */
+public class LongTreap {
+
+    private static final int NIL = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private int[] pri;
+    private int[] cnt;// 这个节点的数量
+    private int[] size;// 以他为root的子树总数量
+    private int[] left;
+    private int[] right;
+
+    private int root = NIL;
+
+    private int nextSlot = 1;// 还没用过的第一个槽位
+    private int freeHead = NIL;// 空闲链表头
+
+    private long seed;// xorshift的状态
+
+    public LongTreap() {
+        this(DEFAULT_CAPACITY, System.nanoTime());
+    }
+
+    public LongTreap(int initialCapacity) {
+        this(initialCapacity, System.nanoTime());
+    }
+
+    /**
+     * @param initialCapacity 预计的不同key个数
+     * @param seed            优先级的种子，种子相同时同样的操作序列得到同样形状的树
+     */
+    public LongTreap(int initialCapacity, long seed) {
+        int capacity = Math.max(initialCapacity, 1) + 1;
+        keys = new long[capacity];
+        pri = new int[capacity];
+        cnt = new int[capacity];
+        size = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        this.seed = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    // 元素总数，重复的key按次数算
+    public int size() {
+        return size[root];
+    }
+
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    public void clear() {
+        root = NIL;
+        nextSlot = 1;
+        freeHead = NIL;
+    }
+
+    //--槽位分配
+
+    private int allocate(long key) {
+        int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = left[node];
+        } else {
+            if (nextSlot == keys.length) {
+                grow();
+            }
+            node = nextSlot++;
+        }
+        long x = seed;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed = x;
+        keys[node] = key;
+        pri[node] = (int) ((x * 0x2545F4914F6CDD1DL) >>> 32);
+        cnt[node] = 1;
+        size[node] = 1;
+        left[node] = NIL;
+        right[node] = NIL;
+        return node;
+    }
+
+    private void release(int node) {
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private void grow() {
+        int capacity = keys.length + (keys.length >> 1) + 1;
+        keys = Arrays.copyOf(keys, capacity);
+        pri = Arrays.copyOf(pri, capacity);
+        cnt = Arrays.copyOf(cnt, capacity);
+        size = Arrays.copyOf(size, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+    }
+
+    private void pushUp(int node) {
+        size[node] = size[left[node]] + size[right[node]] + cnt[node];
+    }
+
+    private int leftRotate(int node) {
+        int r = right[node];
+        right[node] = left[r];
+        left[r] = node;
+        size[r] = size[node];
+        pushUp(node);
+        return r;
+    }
+
+    private int rightRotate(int node) {
+        int l = left[node];
+        left[node] = right[l];
+        right[l] = node;
+        size[l] = size[node];
+        pushUp(node);
+        return l;
+    }
+
+    //--修改
+
+    public void insert(long key) {
+        root = insert(root, key);
+    }
+
+    private int insert(int node, long key) {
+        if (node == NIL) {
+            return allocate(key);
+        }
+        size[node]++;
+        long k = keys[node];
+        if (key < k) {
+            int child = insert(left[node], key);
+            left[node] = child;
+            if (pri[child] > pri[node]) {
+                node = rightRotate(node);
+            }
+        } else if (key > k) {
+            int child = insert(right[node], key);
+            right[node] = child;
+            if (pri[child] > pri[node]) {
+                node = leftRotate(node);
+            }
+        } else {
+            cnt[node]++;
+        }
+        return node;
+    }
+
+    /**
+     * 删除一个key
+     *
+     * @param key 要删除的key
+     * @return key不存在时返回false
+     */
+    public boolean delete(long key) {
+        if (!contains(key)) {
+            return false;
+        }
+        root = delete(root, key);
+        return true;
+    }
+
+    // 调用前保证key存在
+    private int delete(int node, long key) {
+        size[node]--;
+        long k = keys[node];
+        if (key < k) {
+            left[node] = delete(left[node], key);
+        } else if (key > k) {
+            right[node] = delete(right[node], key);
+        } else if (cnt[node] > 1) {
+            cnt[node]--;
+        } else if (left[node] == NIL || right[node] == NIL) {
+            int child = left[node] == NIL ? right[node] : left[node];
+            release(node);
+            return child;
+        } else {
+            // 把优先级大的孩子转上来，要删的节点往下沉，size在旋转和递归里重新算
+            size[node]++;
+            if (pri[left[node]] > pri[right[node]]) {
+                node = rightRotate(node);
+                size[node]--;
+                right[node] = delete(right[node], key);
+            } else {
+                node = leftRotate(node);
+                size[node]--;
+                left[node] = delete(left[node], key);
+            }
+        }
+        return node;
+    }
+
+    // 遍历时接收key和它的个数
+    public interface KeyCountConsumer {
+        void accept(long key, int count);
+    }
+
+    /**
+     * 按从小到大的顺序遍历每个key和它的个数
+     *
+     * @param action 回调
+     */
+    public void forEach(KeyCountConsumer action) {
+        forEach(root, action);
+    }
+
+    private void forEach(int node, KeyCountConsumer action) {
+        while (node != NIL) {
+            forEach(left[node], action);
+            action.accept(keys[node], cnt[node]);
+            node = right[node];
+        }
+    }
+
+    /**
+     * 用严格递增的key的前n个直接建树，原来的节点都会被丢弃
+     * <p>
+     * 和Treap.buildFromSorted一样用栈建笛卡尔树，O(n)；槽位按key的顺序分配
+     *
+     * @param sorted 严格递增的key
+     * @param counts 每个key的个数，为null时都是1
+     * @param n      key的个数
+     */
+    public void buildFromSorted(long[] sorted, int[] counts, int n) {
+        clear();
+        while (keys.length < n + 1) {
+            grow();
+        }
+        int[] stack = new int[n];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            int node = allocate(sorted[i]);
+            if (counts != null) {
+                cnt[node] = counts[i];
+            }
+            int last = NIL;
+            while (top > 0 && pri[stack[top - 1]] < pri[node]) {
+                last = stack[--top];
+                pushUp(last);
+            }
+            left[node] = last;
+            if (top > 0) {
+                right[stack[top - 1]] = node;
+            }
+            stack[top++] = node;
+        }
+        while (top > 0) {
+            pushUp(stack[--top]);
+        }
+        root = n == 0 ? NIL : stack[0];
+    }
+
+    //--查询
+
+    public boolean contains(long key) {
+        return count(key) != 0;
+    }
+
+    // key出现的次数
+    public int count(long key) {
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key < k) {
+                node = left[node];
+            } else if (key > k) {
+                node = right[node];
+            } else {
+                return cnt[node];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 第一个key的排名，从1开始，最后一个key的排名是 rank(key) + count(key) - 1
+     *
+     * @param key 查询的key
+     * @return 排名，key不存在返回0
+     */
+    public int rank(long key) {
+        int node = root;
+        int ans = 0;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key < k) {
+                node = left[node];
+            } else if (key > k) {
+                ans += size[left[node]] + cnt[node];
+                node = right[node];
+            } else {
+                return ans + size[left[node]] + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 排名为k的元素(从小到大)
+     *
+     * @param k 排名，从1开始
+     * @return key
+     * @throws NoSuchElementException k不在[1, size]中
+     */
+    public long kth(int k) {
+        if (k < 1 || k > size[root]) {
+            throw new NoSuchElementException("k: " + k + ", size: " + size[root]);
+        }
+        int node = root;
+        while (true) {
+            int leftRank = size[left[node]];
+            if (k <= leftRank) {
+                node = left[node];
+            } else if (k <= leftRank + cnt[node]) {
+                return keys[node];
+            } else {
+                k -= leftRank + cnt[node];
+                node = right[node];
+            }
+        }
+    }
+
+    public long first() {
+        if (root == NIL) {
+            throw new NoSuchElementException();
+        }
+        int node = root;
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return keys[node];
+    }
+
+    public long last() {
+        if (root == NIL) {
+            throw new NoSuchElementException();
+        }
+        int node = root;
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return keys[node];
+    }
+
+    /**
+     * 小于等于key的最大key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return floor key
+     */
+    public long floor(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key == k) {
+                return k;
+            } else if (key > k) {
+                res = k;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 大于等于key的最小key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return ceiling key
+     */
+    public long ceiling(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key == k) {
+                return k;
+            } else if (key < k) {
+                res = k;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 小于key的最大key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return lower key
+     */
+    public long lower(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key > k) {
+                res = k;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 大于key的最小key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return higher key
+     */
+    public long higher(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key < k) {
+                res = k;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,326 @@
+package blancetree;
+
+/**
+ * 可持久化树堆(可重复)，每个实例都是一个不可变的版本
+ * <p>
+ * 节点的字段全是final，insert/delete不改动旧节点，只复制从根到修改位置路径上的节点，
+ * 返回新版本，期望新建O(log n)个节点，其余子树新旧版本共享。
+ * 旧版本一直有效，读线程拿着某个版本查询不需要加锁，也不会被写线程阻塞；final字段保证了安全发布。
+ * <p>
+ * 默认的优先级由key的hash得到，没有可变状态，多个线程同时从同一个版本派生新版本也没问题
+ *
+ * @param <T> 泛型Key
+ */
+public final class PersistentTreap<T extends Comparable<T>> {
+
+    private static final class TreeNode<T> {
+        final T value;
+        final int priority;
+        final int count;// 这个节点的数量
+        final int size;// 以他为root的子树总数量
+        final TreeNode<T> left;
+        final TreeNode<T> right;
+
+        TreeNode(T value, int priority, int count, TreeNode<T> left, TreeNode<T> right) {
+            this.value = value;
+            this.priority = priority;
+            this.count = count;
+            this.left = left;
+            this.right = right;
+            this.size = sizeOf(left) + sizeOf(right) + count;
+        }
+
+        TreeNode<T> withLeft(TreeNode<T> left) {
+            return new TreeNode<>(value, priority, count, left, right);
+        }
+
+        TreeNode<T> withRight(TreeNode<T> right) {
+            return new TreeNode<>(value, priority, count, left, right);
+        }
+
+        TreeNode<T> withCount(int count) {
+            return new TreeNode<>(value, priority, count, left, right);
+        }
+    }
+
+    private static final PersistentTreap<?> EMPTY = new PersistentTreap<>(null, PriorityGenerator.keyHash());
+
+    private final TreeNode<T> root;
+
+    private final PriorityGenerator<? super T> priorities;
+
+    private PersistentTreap(TreeNode<T> root, PriorityGenerator<? super T> priorities) {
+        this.root = root;
+        this.priorities = priorities;
+    }
+
+    // 空树，优先级由key的hash得到
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<T>> PersistentTreap<T> empty() {
+        return (PersistentTreap<T>) EMPTY;
+    }
+
+    /**
+     * 指定优先级来源的空树，派生出的版本都用它；会有多个线程同时写的话，priorities本身要线程安全
+     *
+     * @param priorities 优先级来源
+     */
+    public static <T extends Comparable<T>> PersistentTreap<T> empty(PriorityGenerator<? super T> priorities) {
+        return new PersistentTreap<T>(null, priorities);
+    }
+
+    private static int sizeOf(TreeNode<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private PersistentTreap<T> version(TreeNode<T> root) {
+        return new PersistentTreap<T>(root, priorities);
+    }
+
+    public int getSize() {
+        return sizeOf(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * 插入一个x，当前版本不变
+     *
+     * @param x 插入的元素
+     * @return 新版本
+     */
+    public PersistentTreap<T> insert(T x) {
+        if (contains(x)) {
+            return version(increase(root, x));
+        }
+        return version(insert(root, new TreeNode<>(x, priorities.next(x), 1, null, null)));
+    }
+
+    // x已经存在，路径复制并把它的数量加一
+    private TreeNode<T> increase(TreeNode<T> node, T x) {
+        int cmp = x.compareTo(node.value);
+        if (cmp < 0) {
+            return node.withLeft(increase(node.left, x));
+        } else if (cmp > 0) {
+            return node.withRight(increase(node.right, x));
+        }
+        return node.withCount(node.count + 1);
+    }
+
+    // 往下找到优先级比leaf小的位置，把那棵子树按key拆开挂到leaf下面
+    private TreeNode<T> insert(TreeNode<T> node, TreeNode<T> leaf) {
+        if (node == null) {
+            return leaf;
+        }
+        if (leaf.priority > node.priority) {
+            TreeNode<T>[] parts = split(node, leaf.value);
+            return new TreeNode<>(leaf.value, leaf.priority, 1, parts[0], parts[1]);
+        }
+        if (leaf.value.compareTo(node.value) < 0) {
+            return node.withLeft(insert(node.left, leaf));
+        }
+        return node.withRight(insert(node.right, leaf));
+    }
+
+    /**
+     * 删除一个x，当前版本不变
+     *
+     * @param x 删除的元素
+     * @return 新版本，x不存在时返回当前版本
+     */
+    public PersistentTreap<T> delete(T x) {
+        if (!contains(x)) {
+            return this;
+        }
+        return version(delete(root, x));
+    }
+
+    // 调用前保证x存在
+    private TreeNode<T> delete(TreeNode<T> node, T x) {
+        int cmp = x.compareTo(node.value);
+        if (cmp < 0) {
+            return node.withLeft(delete(node.left, x));
+        } else if (cmp > 0) {
+            return node.withRight(delete(node.right, x));
+        } else if (node.count > 1) {
+            return node.withCount(node.count - 1);
+        }
+        return merge(node.left, node.right);
+    }
+
+    /**
+     * 按key拆分子树(key不在子树中)，返回{小于key的部分, 大于key的部分}，沿途的节点都是复制出来的
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private TreeNode<T>[] split(TreeNode<T> node, T key) {
+        if (node == null) {
+            return (TreeNode<T>[]) new TreeNode[2];
+        }
+        TreeNode<T>[] parts;
+        if (node.value.compareTo(key) < 0) {
+            parts = split(node.right, key);
+            parts[0] = node.withRight(parts[0]);
+        } else {
+            parts = split(node.left, key);
+            parts[1] = node.withLeft(parts[1]);
+        }
+        return parts;
+    }
+
+    // a中的元素都小于b中的元素，优先级大的做根，沿途的节点都是复制出来的
+    private TreeNode<T> merge(TreeNode<T> a, TreeNode<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.withRight(merge(a.right, b));
+        }
+        return b.withLeft(merge(a, b.left));
+    }
+
+    public boolean contains(T x) {
+        return count(x) != 0;
+    }
+
+    // x出现的次数
+    public int count(T x) {
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return node.count;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return 0;
+    }
+
+    public T first() {
+        TreeNode<T> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    public T last() {
+        TreeNode<T> node = root;
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.value;
+    }
+
+    // 第一个小于等于x的数
+    public T floor(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return node.value;
+            } else if (cmp < 0) {
+                node = node.left;
+            } else {
+                ret = node.value;
+                node = node.right;
+            }
+        }
+        return ret;
+    }
+
+    // 第一个小于x的数
+    public T lower(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            if (x.compareTo(node.value) > 0) {
+                ret = node.value;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return ret;
+    }
+
+    // 第一个大于等于x的数
+    public T ceiling(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp == 0) {
+                return node.value;
+            } else if (cmp < 0) {
+                ret = node.value;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return ret;
+    }
+
+    // 第一个大于x的数
+    public T higher(T x) {
+        T ret = null;
+        TreeNode<T> node = root;
+        while (node != null) {
+            if (x.compareTo(node.value) < 0) {
+                ret = node.value;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return ret;
+    }
+
+    // 返回x的排名，从1开始。返回数组ret，ret[0]表示第一个x的rank，ret[1]表示最后一个x的rank，x不存在时都是0
+    public int[] rank(T x) {
+        TreeNode<T> node = root;
+        int ans = 0;
+        while (node != null) {
+            int cmp = x.compareTo(node.value);
+            if (cmp < 0) {
+                node = node.left;
+            } else {
+                ans += sizeOf(node.left) + node.count;
+                if (cmp == 0) {
+                    return new int[]{ans - node.count + 1, ans};
+                }
+                node = node.right;
+            }
+        }
+        return new int[]{0, 0};
+    }
+
+    // 返回排名为k的元素(从小到大)，k越界返回null
+    public T kth(int k) {
+        TreeNode<T> node = root;
+        while (node != null) {
+            int leftRank = sizeOf(node.left);
+            if (k <= leftRank) {
+                node = node.left;
+            } else if (k <= leftRank + node.count) {
+                return node.value;
+            } else {
+                k -= leftRank + node.count;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+}
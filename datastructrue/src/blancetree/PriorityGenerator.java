@@ -0,0 +1,109 @@
+package blancetree;
+
+/**
+ * treap节点优先级的来源
+ * <p>
+ * 每棵树持有自己的实例，不和别的树共享状态，所以不像java.util.Random那样每次都要CAS共享的种子。
+ * 从一棵树拆出新树时(FhqTreap.split)，新树用fork得到自己的实例；
+ * PersistentTreap的各个版本是同一棵树，共用一个实例
+ *
+ * @param <T> 泛型Key
+ */
+public interface PriorityGenerator<T> {
+
+    /**
+     * 生成新节点的优先级
+     *
+     * @param key 新节点的key
+     * @return 优先级
+     */
+    int next(T key);
+
+    /**
+     * 给新拆出来的树一个独立的实例，两边之后互不影响
+     * <p>
+     * 默认返回自己，只适合没有可变状态的实现；有状态的实现要覆盖这个方法
+     *
+     * @return 新实例
+     */
+    default PriorityGenerator<T> fork() {
+        return this;
+    }
+
+    /**
+     * 默认实现：种子取自System.nanoTime的xorshift
+     */
+    static <T> PriorityGenerator<T> xorShift() {
+        return new XorShift<>(System.nanoTime());
+    }
+
+    /**
+     * 固定种子的xorshift，同样的插入序列得到同样形状的树，便于复现性能问题
+     *
+     * @param seed 种子
+     */
+    static <T> PriorityGenerator<T> seeded(long seed) {
+        return new XorShift<>(seed);
+    }
+
+    /**
+     * 优先级由key的hashCode打散得到，和插入顺序无关，同一个key集合的树形状唯一；也没有可变状态，天然线程安全。
+     * <p>
+     * 相同的key优先级也相同，重复元素各占一个节点的树(FhqTreap)或按下标存放的ImplicitTreap不适合用它，
+     * 这两个的构造方法会拒绝它
+     */
+    static <T> PriorityGenerator<T> keyHash() {
+        return new KeyHash<>();
+    }
+
+    final class XorShift<T> implements PriorityGenerator<T> {
+        private long state;
+
+        XorShift(long seed) {
+            // 先用splitmix64打散种子，避免0和相近的种子产生相关的序列
+            long z = seed + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            this.state = z == 0 ? 0x9E3779B97F4A7C15L : z;
+        }
+
+        @Override
+        public int next(T key) {
+            long x = state;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            state = x;
+            return (int) ((x * 0x2545F4914F6CDD1DL) >>> 32);
+        }
+
+        /**
+         * 用自己的下一个状态当新实例的种子，构造时会再用splitmix打散，两边的序列不相关；
+         * 整个过程是确定的，固定种子时拆分后的树形状也能复现
+         */
+        @Override
+        public PriorityGenerator<T> fork() {
+            long x = state;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            state = x;
+            return new XorShift<>(x);
+        }
+    }
+
+    final class KeyHash<T> implements PriorityGenerator<T> {
+        @Override
+        public int next(T key) {
+            // murmur3的fmix32
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            h *= 0xC2B2AE35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package blancetree;
 
-import java.util.Random;
+import java.util.function.ObjIntConsumer;
 
 /**
  * 树堆，满足平衡树的性质，还带上了rank的查询
@@ -48,10 +48,23 @@ public class Treap<T extends Comparable<T>> {
 
     private TreeNode<T> root;
 
-    private final Random random;
+    private final PriorityGenerator<? super T> priorities;
 
     public Treap() {
-        this.random = new Random();
+        this(PriorityGenerator.xorShift());
+    }
+
+    /**
+     * 固定种子，同样的操作序列得到同样形状的树
+     *
+     * @param seed 种子
+     */
+    public Treap(long seed) {
+        this(PriorityGenerator.seeded(seed));
+    }
+
+    public Treap(PriorityGenerator<? super T> priorities) {
+        this.priorities = priorities;
     }
 
     public int getSize() {
@@ -86,7 +99,7 @@ public class Treap<T extends Comparable<T>> {
 
     private TreeNode<T> insert(TreeNode<T> root, T x) {
         if (root == null) {
-            return new TreeNode<>(x, random.nextInt());
+            return new TreeNode<>(x, priorities.next(x));
         }
         root.size++;
         int cmp = x.compareTo(root.value);
@@ -174,7 +187,7 @@ public class Treap<T extends Comparable<T>> {
         return ret;
     }
 
-    // 返回x的排名，从1开始。返回数组ret，ret[0]表示第一个x的rank，ret[1]表示最后一个x的rank。
+    // 返回x的排名，从1开始。返回数组ret，ret[0]表示第一个x的rank，ret[1]表示最后一个x的rank，x不存在时都是0
     public int[] rank(T x) {
         TreeNode<T> node = root;
         int ans = 0;
@@ -268,6 +281,63 @@ public class Treap<T extends Comparable<T>> {
         return root;
     }
 
+    /**
+     * 按从小到大的顺序遍历每个key和它的个数
+     *
+     * @param action 回调，参数是key和个数
+     */
+    public void forEach(ObjIntConsumer<? super T> action) {
+        forEach(root, action);
+    }
+
+    private void forEach(TreeNode<T> node, ObjIntConsumer<? super T> action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.value, node.count);
+            node = node.right;
+        }
+    }
+
+    /**
+     * 用严格递增的key直接建树，原来的节点都会被丢弃
+     * <p>
+     * 按key有序时treap就是以优先级为堆的笛卡尔树，用栈维护最右链，每个节点进出栈各一次，O(n)。
+     * 节点出栈时它的子树已经不会再变，这时算size
+     *
+     * @param keys   严格递增的key
+     * @param counts 每个key的个数，为null时都是1
+     * @param n      key的个数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void buildFromSorted(T[] keys, int[] counts, int n) {
+        TreeNode<T>[] stack = new TreeNode[n];
+        int top = 0;
+        for (int i = 0; i < n; i++) {
+            TreeNode<T> node = new TreeNode<>(keys[i], priorities.next(keys[i]));
+            if (counts != null) {
+                node.count = counts[i];
+            }
+            TreeNode<T> last = null;
+            while (top > 0 && stack[top - 1].priority < node.priority) {
+                last = stack[--top];
+                pushUp(last);
+            }
+            node.left = last;
+            if (top > 0) {
+                stack[top - 1].right = node;
+            }
+            stack[top++] = node;
+        }
+        while (top > 0) {
+            pushUp(stack[--top]);
+        }
+        root = n == 0 ? null : stack[0];
+    }
+
+    private void pushUp(TreeNode<T> node) {
+        node.size = (node.left == null ? 0 : node.left.size) + (node.right == null ? 0 : node.right.size) + node.count;
+    }
+
     public boolean contains(T value) {
         return contains(root, value);
     }
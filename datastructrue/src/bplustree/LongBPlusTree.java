@@ -0,0 +1,590 @@
+package bplustree;
+
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * key为long的B+树(可重复)，可以替代AvlTree做有序索引
+ * <p>
+ * 二叉树每下降一层就是一次指针跳转，key又在另一个对象里，数据量大时基本每层都是cache miss。
+ * 这里每个节点放MAX_KEYS个key，key用long[]连续存放，节点内线性查找，16个key只占两条cache line，
+ * 线性扫描对预取友好，也容易被JIT向量化；树高只有log16(n)左右。
+ * <p>
+ * key和个数只放在叶子里，叶子之间用双向链表连起来，区间遍历不用回到上层。
+ * 内部节点的keys[i]分隔children[i]和children[i+1]：children[i]中的key都小于keys[i]，children[i+1]中的都大于等于keys[i]；
+ * sizes[i]是children[i]子树中元素的总个数，用来算kth和rank
+ */
+public class LongBPlusTree {
+
+    // 每个节点最多的key个数
+    private static final int MAX_KEYS = 16;
+
+    // 非根节点最少的key个数
+    private static final int MIN_KEYS = MAX_KEYS / 2;
+
+    private abstract static class Node {
+        int n;// key的个数
+        // 多留一个位置，插入时先放进去再分裂
+        final long[] keys = new long[MAX_KEYS + 1];
+    }
+
+    private static final class Leaf extends Node {
+        final long[] counts = new long[MAX_KEYS + 1];
+        Leaf prev;
+        Leaf next;
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children = new Node[MAX_KEYS + 2];
+        final long[] sizes = new long[MAX_KEYS + 2];
+    }
+
+    private Node root = new Leaf();
+
+    private long size;
+
+    // 插入时子节点分裂出的新节点的最小key，由insert返回给父节点
+    private long splitKey;
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0L;
+    }
+
+    public void clear() {
+        root = new Leaf();
+        size = 0L;
+    }
+
+    //--节点内查找
+
+    // 第一个大于等于x的位置
+    private static int lowerBound(Node node, long x) {
+        long[] keys = node.keys;
+        int n = node.n;
+        int i = 0;
+        while (i < n && keys[i] < x) {
+            i++;
+        }
+        return i;
+    }
+
+    // 第一个大于x的位置
+    private static int upperBound(Node node, long x) {
+        long[] keys = node.keys;
+        int n = node.n;
+        int i = 0;
+        while (i < n && keys[i] <= x) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long sizeOf(Node node) {
+        long s = 0L;
+        if (node instanceof Leaf) {
+            long[] counts = ((Leaf) node).counts;
+            for (int i = 0; i < node.n; i++) {
+                s += counts[i];
+            }
+        } else {
+            long[] sizes = ((Inner) node).sizes;
+            for (int i = 0; i <= node.n; i++) {
+                s += sizes[i];
+            }
+        }
+        return s;
+    }
+
+    // 小于等于x的key都在返回的叶子和它前面的叶子里，大于x的都在它和它后面的叶子里
+    private Leaf findLeaf(long x) {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[upperBound(node, x)];
+        }
+        return (Leaf) node;
+    }
+
+    // 小于x的key都在返回的叶子和它前面的叶子里
+    private Leaf findLeafBefore(long x) {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[lowerBound(node, x)];
+        }
+        return (Leaf) node;
+    }
+
+    //--插入
+
+    public void insert(long x) {
+        insert(x, 1L);
+    }
+
+    /**
+     * 插入cnt个x
+     *
+     * @param x   插入的key
+     * @param cnt 个数，必须大于0
+     */
+    public void insert(long x, long cnt) {
+        if (cnt <= 0L) {
+            throw new IllegalArgumentException("cnt must be positive: " + cnt);
+        }
+        Node sibling = insert(root, x, cnt);
+        if (sibling != null) {
+            // 根分裂了，树长高一层
+            Inner newRoot = new Inner();
+            newRoot.n = 1;
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = sibling;
+            newRoot.sizes[0] = sizeOf(root);
+            newRoot.sizes[1] = sizeOf(sibling);
+            root = newRoot;
+        }
+        size += cnt;
+    }
+
+    /**
+     * 插入到node的子树中
+     *
+     * @return node分裂出来的右半部分，没有分裂返回null，分隔key放在splitKey里
+     */
+    private Node insert(Node node, long x, long cnt) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf, x);
+            if (i < leaf.n && leaf.keys[i] == x) {
+                leaf.counts[i] += cnt;
+                return null;
+            }
+            System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+            System.arraycopy(leaf.counts, i, leaf.counts, i + 1, leaf.n - i);
+            leaf.keys[i] = x;
+            leaf.counts[i] = cnt;
+            leaf.n++;
+            return leaf.n > MAX_KEYS ? splitLeaf(leaf) : null;
+        }
+        Inner inner = (Inner) node;
+        int c = upperBound(inner, x);
+        inner.sizes[c] += cnt;
+        Node sibling = insert(inner.children[c], x, cnt);
+        if (sibling == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, c, inner.keys, c + 1, inner.n - c);
+        System.arraycopy(inner.children, c + 1, inner.children, c + 2, inner.n - c);
+        System.arraycopy(inner.sizes, c + 1, inner.sizes, c + 2, inner.n - c);
+        inner.keys[c] = splitKey;
+        inner.children[c + 1] = sibling;
+        long siblingSize = sizeOf(sibling);
+        inner.sizes[c + 1] = siblingSize;
+        inner.sizes[c] -= siblingSize;
+        inner.n++;
+        return inner.n > MAX_KEYS ? splitInner(inner) : null;
+    }
+
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf();
+        int half = leaf.n / 2;
+        right.n = leaf.n - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.n);
+        System.arraycopy(leaf.counts, half, right.counts, 0, right.n);
+        leaf.n = half;
+        right.next = leaf.next;
+        if (right.next != null) {
+            right.next.prev = right;
+        }
+        right.prev = leaf;
+        leaf.next = right;
+        splitKey = right.keys[0];
+        return right;
+    }
+
+    // 中间的key提到父节点，左右各留一半
+    private Inner splitInner(Inner inner) {
+        Inner right = new Inner();
+        int mid = inner.n / 2;
+        right.n = inner.n - mid - 1;
+        System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.n);
+        System.arraycopy(inner.children, mid + 1, right.children, 0, right.n + 1);
+        System.arraycopy(inner.sizes, mid + 1, right.sizes, 0, right.n + 1);
+        splitKey = inner.keys[mid];
+        for (int i = mid + 1; i <= inner.n; i++) {
+            inner.children[i] = null;
+        }
+        inner.n = mid;
+        return right;
+    }
+
+    //--删除
+
+    public boolean delete(long x) {
+        return delete(x, 1L);
+    }
+
+    /**
+     * 删除cnt个x，x的个数不够cnt时全部删掉
+     *
+     * @param x   删除的key
+     * @param cnt 个数，必须大于0
+     * @return x不存在返回false
+     */
+    public boolean delete(long x, long cnt) {
+        if (cnt <= 0L) {
+            throw new IllegalArgumentException("cnt must be positive: " + cnt);
+        }
+        long removed = Math.min(count(x), cnt);
+        if (removed == 0L) {
+            return false;
+        }
+        delete(root, x, removed);
+        if (root instanceof Inner && root.n == 0) {
+            // 根只剩一个孩子，树变矮一层
+            root = ((Inner) root).children[0];
+        }
+        size -= removed;
+        return true;
+    }
+
+    // 调用前保证x存在且个数不少于cnt
+    private void delete(Node node, long x, long cnt) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = lowerBound(leaf, x);
+            leaf.counts[i] -= cnt;
+            if (leaf.counts[i] == 0L) {
+                System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+                System.arraycopy(leaf.counts, i + 1, leaf.counts, i, leaf.n - i - 1);
+                leaf.n--;
+            }
+            return;
+        }
+        Inner inner = (Inner) node;
+        int c = upperBound(inner, x);
+        inner.sizes[c] -= cnt;
+        Node child = inner.children[c];
+        delete(child, x, cnt);
+        if (child.n < MIN_KEYS) {
+            fixUnderflow(inner, c);
+        }
+    }
+
+    /**
+     * children[c]的key不够了：兄弟有富余就借一个，否则和兄弟合并
+     */
+    private void fixUnderflow(Inner parent, int c) {
+        if (c > 0 && parent.children[c - 1].n > MIN_KEYS) {
+            borrowFromLeft(parent, c);
+        } else if (c < parent.n && parent.children[c + 1].n > MIN_KEYS) {
+            borrowFromRight(parent, c);
+        } else if (c > 0) {
+            mergeChildren(parent, c - 1);
+        } else if (c < parent.n) {
+            mergeChildren(parent, c);
+        }
+        // 只有一个孩子的只可能是根，在delete里处理
+    }
+
+    private void borrowFromLeft(Inner parent, int c) {
+        Node child = parent.children[c];
+        Node left = parent.children[c - 1];
+        long moved;
+        System.arraycopy(child.keys, 0, child.keys, 1, child.n);
+        if (child instanceof Leaf) {
+            Leaf l = (Leaf) left, ch = (Leaf) child;
+            System.arraycopy(ch.counts, 0, ch.counts, 1, ch.n);
+            ch.keys[0] = l.keys[l.n - 1];
+            ch.counts[0] = l.counts[l.n - 1];
+            moved = ch.counts[0];
+            parent.keys[c - 1] = ch.keys[0];
+        } else {
+            Inner l = (Inner) left, ch = (Inner) child;
+            System.arraycopy(ch.children, 0, ch.children, 1, ch.n + 1);
+            System.arraycopy(ch.sizes, 0, ch.sizes, 1, ch.n + 1);
+            ch.keys[0] = parent.keys[c - 1];
+            ch.children[0] = l.children[l.n];
+            ch.sizes[0] = l.sizes[l.n];
+            moved = ch.sizes[0];
+            l.children[l.n] = null;
+            parent.keys[c - 1] = l.keys[l.n - 1];
+        }
+        child.n++;
+        left.n--;
+        parent.sizes[c - 1] -= moved;
+        parent.sizes[c] += moved;
+    }
+
+    private void borrowFromRight(Inner parent, int c) {
+        Node child = parent.children[c];
+        Node right = parent.children[c + 1];
+        long moved;
+        if (child instanceof Leaf) {
+            Leaf r = (Leaf) right, ch = (Leaf) child;
+            ch.keys[ch.n] = r.keys[0];
+            ch.counts[ch.n] = r.counts[0];
+            moved = r.counts[0];
+            System.arraycopy(r.keys, 1, r.keys, 0, r.n - 1);
+            System.arraycopy(r.counts, 1, r.counts, 0, r.n - 1);
+            parent.keys[c] = r.keys[0];
+        } else {
+            Inner r = (Inner) right, ch = (Inner) child;
+            ch.keys[ch.n] = parent.keys[c];
+            ch.children[ch.n + 1] = r.children[0];
+            ch.sizes[ch.n + 1] = r.sizes[0];
+            moved = r.sizes[0];
+            parent.keys[c] = r.keys[0];
+            System.arraycopy(r.keys, 1, r.keys, 0, r.n - 1);
+            System.arraycopy(r.children, 1, r.children, 0, r.n);
+            System.arraycopy(r.sizes, 1, r.sizes, 0, r.n);
+            r.children[r.n] = null;
+        }
+        child.n++;
+        right.n--;
+        parent.sizes[c] += moved;
+        parent.sizes[c + 1] -= moved;
+    }
+
+    // 把children[i+1]合并到children[i]里，去掉它们之间的分隔key
+    private void mergeChildren(Inner parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (left instanceof Leaf) {
+            Leaf l = (Leaf) left, r = (Leaf) right;
+            System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+            System.arraycopy(r.counts, 0, l.counts, l.n, r.n);
+            l.n += r.n;
+            l.next = r.next;
+            if (l.next != null) {
+                l.next.prev = l;
+            }
+        } else {
+            Inner l = (Inner) left, r = (Inner) right;
+            l.keys[l.n] = parent.keys[i];
+            System.arraycopy(r.keys, 0, l.keys, l.n + 1, r.n);
+            System.arraycopy(r.children, 0, l.children, l.n + 1, r.n + 1);
+            System.arraycopy(r.sizes, 0, l.sizes, l.n + 1, r.n + 1);
+            l.n += r.n + 1;
+        }
+        parent.sizes[i] += parent.sizes[i + 1];
+        System.arraycopy(parent.keys, i + 1, parent.keys, i, parent.n - i - 1);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.n - i - 1);
+        System.arraycopy(parent.sizes, i + 2, parent.sizes, i + 1, parent.n - i - 1);
+        parent.children[parent.n] = null;
+        parent.n--;
+    }
+
+    //--查询
+
+    public boolean contains(long x) {
+        return count(x) != 0L;
+    }
+
+    // x出现的次数
+    public long count(long x) {
+        Leaf leaf = findLeaf(x);
+        int i = lowerBound(leaf, x);
+        return i < leaf.n && leaf.keys[i] == x ? leaf.counts[i] : 0L;
+    }
+
+    public long first() {
+        if (size == 0L) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[0];
+        }
+        return node.keys[0];
+    }
+
+    public long last() {
+        if (size == 0L) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[node.n];
+        }
+        return node.keys[node.n - 1];
+    }
+
+    /**
+     * 小于等于x的最大key
+     *
+     * @param x      查询的key
+     * @param absent 不存在时的返回值
+     * @return floor key
+     */
+    public long floor(long x, long absent) {
+        Leaf leaf = findLeaf(x);
+        int i = upperBound(leaf, x) - 1;
+        if (i >= 0) {
+            return leaf.keys[i];
+        }
+        return leaf.prev == null ? absent : leaf.prev.keys[leaf.prev.n - 1];
+    }
+
+    /**
+     * 小于x的最大key
+     *
+     * @param x      查询的key
+     * @param absent 不存在时的返回值
+     * @return lower key
+     */
+    public long lower(long x, long absent) {
+        Leaf leaf = findLeafBefore(x);
+        int i = lowerBound(leaf, x) - 1;
+        if (i >= 0) {
+            return leaf.keys[i];
+        }
+        return leaf.prev == null ? absent : leaf.prev.keys[leaf.prev.n - 1];
+    }
+
+    /**
+     * 大于等于x的最小key
+     *
+     * @param x      查询的key
+     * @param absent 不存在时的返回值
+     * @return ceiling key
+     */
+    public long ceiling(long x, long absent) {
+        Leaf leaf = findLeafBefore(x);
+        int i = lowerBound(leaf, x);
+        if (i < leaf.n) {
+            return leaf.keys[i];
+        }
+        return leaf.next == null ? absent : leaf.next.keys[0];
+    }
+
+    /**
+     * 大于x的最小key
+     *
+     * @param x      查询的key
+     * @param absent 不存在时的返回值
+     * @return higher key
+     */
+    public long higher(long x, long absent) {
+        Leaf leaf = findLeaf(x);
+        int i = upperBound(leaf, x);
+        if (i < leaf.n) {
+            return leaf.keys[i];
+        }
+        return leaf.next == null ? absent : leaf.next.keys[0];
+    }
+
+    /**
+     * 排名为k的元素(从小到大)
+     *
+     * @param k 排名，从1开始
+     * @return key
+     * @throws NoSuchElementException k不在[1, size]中
+     */
+    public long kth(long k) {
+        if (k < 1L || k > size) {
+            throw new NoSuchElementException("k: " + k + ", size: " + size);
+        }
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int c = 0;
+            while (k > inner.sizes[c]) {
+                k -= inner.sizes[c];
+                c++;
+            }
+            node = inner.children[c];
+        }
+        Leaf leaf = (Leaf) node;
+        int i = 0;
+        while (k > leaf.counts[i]) {
+            k -= leaf.counts[i];
+            i++;
+        }
+        return leaf.keys[i];
+    }
+
+    /**
+     * x第一次出现的排名，不分配数组
+     *
+     * @param x 查询的key
+     * @return 排名，从1开始，x不存在返回0，和其他树的rank一致
+     */
+    public long rankOf(long x) {
+        return contains(x) ? countLess(x, false) + 1 : 0L;
+    }
+
+    // 返回x的排名，从1开始。ret[0]表示第一个x的rank，ret[1]表示最后一个x的rank，x不存在时都是0
+    public long[] rank(long x) {
+        long cnt = count(x);
+        if (cnt == 0L) {
+            return new long[]{0L, 0L};
+        }
+        long first = countLess(x, false) + 1;
+        return new long[]{first, first + cnt - 1};
+    }
+
+    /**
+     * 统计落在[lo, hi]中的元素个数(重复元素按个数算)
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return 元素个数
+     */
+    public long countInRange(long lo, long hi) {
+        if (lo > hi) {
+            return 0L;
+        }
+        return countLess(hi, true) - countLess(lo, false);
+    }
+
+    // 小于x(inclusive为true时是小于等于)的元素个数
+    private long countLess(long x, boolean inclusive) {
+        long ans = 0L;
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            int c = inclusive ? upperBound(inner, x) : lowerBound(inner, x);
+            for (int i = 0; i < c; i++) {
+                ans += inner.sizes[i];
+            }
+            node = inner.children[c];
+        }
+        Leaf leaf = (Leaf) node;
+        int end = inclusive ? upperBound(leaf, x) : lowerBound(leaf, x);
+        for (int i = 0; i < end; i++) {
+            ans += leaf.counts[i];
+        }
+        return ans;
+    }
+
+    /**
+     * 从小到大遍历[lo, hi]中的key，每个key只回调一次，个数用count查
+     * <p>
+     * 找到lo所在的叶子后沿着叶子链表往后扫，O(log n + k)
+     *
+     * @param lo     下界，包含
+     * @param hi     上界，包含
+     * @param action 回调
+     */
+    public void forEachInRange(long lo, long hi, LongConsumer action) {
+        if (lo > hi) {
+            return;
+        }
+        Leaf leaf = findLeafBefore(lo);
+        int i = lowerBound(leaf, lo);
+        while (leaf != null) {
+            for (; i < leaf.n; i++) {
+                long k = leaf.keys[i];
+                if (k > hi) {
+                    return;
+                }
+                action.accept(k);
+            }
+            leaf = leaf.next;
+            i = 0;
+        }
+    }
+}
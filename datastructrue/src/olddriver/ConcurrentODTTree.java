@@ -0,0 +1,193 @@
+package olddriver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 线程安全的珂朵莉树
+ * <p>
+ * 区间存放在ConcurrentSkipListMap中，节点不可变，修改区间都是发布一个新节点。
+ * 写操作只锁住自己会碰到的坐标范围(包括两端被切开的区间和可能合并的相邻区间)，不相交的merge可以并行执行；
+ * 读操作不加锁，每次读到的都是某一时刻完整发布的节点。
+ */
+public class ConcurrentODTTree {
+
+    static final class Node {
+        final long l, r, v;
+
+        Node(long l, long r, long v) {
+            this.l = l;
+            this.r = r;
+            this.v = v;
+        }
+    }
+
+    /**
+     * 区间锁，持有的范围两两不相交，申请和已持有范围有重叠时等待
+     */
+    static final class RangeLock {
+        private final List<long[]> held = new ArrayList<>();
+
+        synchronized long[] lock(long lo, long hi) {
+            boolean interrupted = false;
+            while (overlaps(lo, hi)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            long[] range = {lo, hi};
+            held.add(range);
+            return range;
+        }
+
+        synchronized void unlock(long[] range) {
+            held.remove(range);
+            notifyAll();
+        }
+
+        private boolean overlaps(long lo, long hi) {
+            for (long[] range : held) {
+                if (range[0] <= hi && lo <= range[1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    final ConcurrentSkipListMap<Long, Node> tree = new ConcurrentSkipListMap<>();
+
+    private final RangeLock rangeLock = new RangeLock();
+
+    public ConcurrentODTTree() {
+    }
+
+    public ConcurrentODTTree(long l, long r, long v) {
+        tree.put(l, new Node(l, r, v));
+    }
+
+    public void split(long l) {
+        long[] range = lockCovering(l, l);
+        try {
+            doSplit(l);
+        } finally {
+            rangeLock.unlock(range);
+        }
+    }
+
+    public void merge(long l, long r, long v) {
+        // 除了[l, r]本身，还要把左右相邻的两个点锁住，合并的时候会用到
+        long from = l == Long.MIN_VALUE ? l : l - 1;
+        long to = r == Long.MAX_VALUE ? r : r + 1;
+        long[] range = lockCovering(from, to);
+        try {
+            doSplit(l);
+            if (r != Long.MAX_VALUE) {
+                doSplit(r + 1);
+            }
+
+            // 和前一个区间进行合并
+            if (l != Long.MIN_VALUE) {
+                Map.Entry<Long, Node> prev = tree.floorEntry(l - 1);
+                if (prev != null && prev.getValue().v == v && prev.getValue().r == l - 1) {
+                    l = prev.getKey();
+                }
+            }
+
+            // 和后一个区间进行合并
+            if (r != Long.MAX_VALUE) {
+                Node next = tree.get(r + 1);
+                if (next != null && next.v == v) {
+                    r = next.r;
+                }
+            }
+
+            // 先发布新区间，再清掉被覆盖的旧区间，读者最多读到旧值，不会读到空洞
+            tree.put(l, new Node(l, r, v));
+            tree.subMap(l, false, r, true).clear();
+        } finally {
+            rangeLock.unlock(range);
+        }
+    }
+
+    /**
+     * 查询x所在区间的值，不加锁
+     *
+     * @param x            坐标
+     * @param defaultValue x不在任何区间中时的返回值
+     * @return x所在区间的值
+     */
+    public long get(long x, long defaultValue) {
+        Map.Entry<Long, Node> entry = tree.floorEntry(x);
+        return entry == null || entry.getValue().r < x ? defaultValue : entry.getValue().v;
+    }
+
+    /**
+     * 按左端点从小到大遍历所有区间，不加锁，和ConcurrentSkipListMap的迭代一样是弱一致的
+     * <p>
+     * merge先发布新区间再清掉被盖住的旧区间，split先放右半段再截断左半段，
+     * 遍历时可能同时看到新旧两个重叠的节点。左端点落在已经报告过的区间里的节点直接跳过，
+     * 报告出来的区间两两不相交，每个点的值都是某一时刻发布的值
+     *
+     * @param visitor 回调
+     */
+    public void forEach(LongODTTree.Visitor visitor) {
+        boolean first = true;
+        long lastR = 0L;
+        for (Node node : tree.values()) {
+            if (!first && node.l <= lastR) {
+                continue;
+            }
+            first = false;
+            lastR = node.r;
+            visitor.visit(node.l, node.r, node.v);
+        }
+    }
+
+    private void doSplit(long l) {
+        Map.Entry<Long, Node> prev = tree.floorEntry(l);
+        if (prev == null || prev.getKey() == l || prev.getValue().r < l) {
+            return;
+        }
+
+        Node cur = prev.getValue();
+        // 先放右半段，再截断左半段，任何时刻l两边的点都能读到正确的值
+        tree.put(l, new Node(l, cur.r, cur.v));
+        tree.put(cur.l, new Node(cur.l, l - 1, cur.v));
+    }
+
+    /**
+     * 锁住覆盖[from, to]以及两端所在区间的坐标范围
+     * <p>
+     * 两端所在的区间在加锁之前可能被别的线程改大，加锁后重新检查一遍，没被盖住就放锁重来。
+     * 加锁成功以后，别的线程要改动这些区间必须锁住和它相交的范围，所以检查通过后区间不会再变。
+     */
+    private long[] lockCovering(long from, long to) {
+        while (true) {
+            long lo = extentLeft(from);
+            long hi = extentRight(to);
+            long[] range = rangeLock.lock(lo, hi);
+            if (extentLeft(from) >= lo && extentRight(to) <= hi) {
+                return range;
+            }
+            rangeLock.unlock(range);
+        }
+    }
+
+    private long extentLeft(long x) {
+        Map.Entry<Long, Node> entry = tree.floorEntry(x);
+        return entry == null || entry.getValue().r < x ? x : entry.getValue().l;
+    }
+
+    private long extentRight(long x) {
+        Map.Entry<Long, Node> entry = tree.floorEntry(x);
+        return entry == null || entry.getValue().r < x ? x : entry.getValue().r;
+    }
+}
@@ -0,0 +1,214 @@
+package olddriver;
+
+/**
+ * long坐标的珂朵莉树
+ * <p>
+ * 区间按左端点组织在一棵无旋treap上，split/merge期望O(log n)，
+ * 坐标和值都是long，不经过TreeMap，所以整个操作路径上没有装箱
+ */
+public class LongODTTree {
+
+    static class Node {
+        long l, r, v;
+        int priority;
+        Node left, right;
+
+        Node(long l, long r, long v, int priority) {
+            this.l = l;
+            this.r = r;
+            this.v = v;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * 区间遍历的回调，参数都是原始类型
+     */
+    public interface Visitor {
+        void visit(long l, long r, long v);
+    }
+
+    Node root;
+
+    // splitTree的两个返回值
+    private Node lo, hi;
+
+    // xorshift的状态，每棵树自己一份
+    private int seed = 0x2545F491;
+
+    public LongODTTree() {
+    }
+
+    public LongODTTree(long l, long r, long v) {
+        root = newNode(l, r, v);
+    }
+
+    public void split(long l) {
+        Node cur = floorNode(l);
+        if (cur == null || cur.l == l || cur.r < l) {
+            return;
+        }
+        long r = cur.r;
+        // 左端点不变，原节点直接截断即可
+        cur.r = l - 1;
+        insertNode(newNode(l, r, cur.v));
+    }
+
+    public void merge(long l, long r, long v) {
+        this.split(l);
+        if (r != Long.MAX_VALUE) {
+            this.split(r + 1);
+        }
+
+        // l闭区间, r+1开区间，中间那段直接丢掉
+        splitTree(root, l);
+        Node prevPart = lo;
+        Node nextPart = null;
+        if (r != Long.MAX_VALUE) {
+            splitTree(hi, r + 1);
+            nextPart = hi;
+        }
+
+        // 和前一个区间进行合并
+        Node prev = l == Long.MIN_VALUE ? null : lastNode(prevPart);
+        Node cur = null;
+        if (prev != null && prev.v == v && prev.r == l - 1) {
+            prev.r = r;
+            cur = prev;
+        }
+
+        // 和后一个区间进行合并
+        Node next = r == Long.MAX_VALUE ? null : firstNode(nextPart);
+        if (next != null && next.v == v && next.l == r + 1) {
+            nextPart = removeFirst(nextPart);
+            r = next.r;
+            if (cur != null) {
+                cur.r = r;
+            }
+        }
+
+        if (cur == null) {
+            prevPart = joinTree(prevPart, newNode(l, r, v));
+        }
+        root = joinTree(prevPart, nextPart);
+    }
+
+    /**
+     * 查询x所在区间的值
+     *
+     * @param x            坐标
+     * @param defaultValue x不在任何区间中时的返回值
+     * @return x所在区间的值
+     */
+    public long get(long x, long defaultValue) {
+        Node node = floorNode(x);
+        return node == null || node.r < x ? defaultValue : node.v;
+    }
+
+    /**
+     * 按左端点从小到大遍历所有区间
+     *
+     * @param visitor 回调
+     */
+    public void forEach(Visitor visitor) {
+        forEach(root, visitor);
+    }
+
+    private void forEach(Node node, Visitor visitor) {
+        if (node == null) {
+            return;
+        }
+        forEach(node.left, visitor);
+        visitor.visit(node.l, node.r, node.v);
+        forEach(node.right, visitor);
+    }
+
+    // 左端点小于等于x的最后一个区间
+    private Node floorNode(long x) {
+        Node res = null;
+        Node node = root;
+        while (node != null) {
+            if (node.l <= x) {
+                res = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return res;
+    }
+
+    private void insertNode(Node node) {
+        splitTree(root, node.l);
+        Node right = hi;
+        root = joinTree(joinTree(lo, node), right);
+    }
+
+    /**
+     * 按左端点把t拆成两棵树，结果放在lo(左端点小于key)和hi(左端点大于等于key)
+     */
+    private void splitTree(Node t, long key) {
+        if (t == null) {
+            lo = hi = null;
+            return;
+        }
+        if (t.l < key) {
+            splitTree(t.right, key);
+            t.right = lo;
+            lo = t;
+        } else {
+            splitTree(t.left, key);
+            t.left = hi;
+            hi = t;
+        }
+    }
+
+    // a中的区间都在b的左边
+    private Node joinTree(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = joinTree(a.right, b);
+            return a;
+        }
+        b.left = joinTree(a, b.left);
+        return b;
+    }
+
+    private Node removeFirst(Node t) {
+        if (t.left == null) {
+            return t.right;
+        }
+        t.left = removeFirst(t.left);
+        return t;
+    }
+
+    private Node firstNode(Node node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    private Node lastNode(Node node) {
+        if (node != null) {
+            while (node.right != null) {
+                node = node.right;
+            }
+        }
+        return node;
+    }
+
+    private Node newNode(long l, long r, long v) {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return new Node(l, r, v, seed);
+    }
+}
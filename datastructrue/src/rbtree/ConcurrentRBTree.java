@@ -0,0 +1,141 @@
+package rbtree;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 读多写少场景下的线程安全红黑树
+ * <p>
+ * 写操作拿StampedLock的写锁，在RBTree上正常插入、删除、旋转。
+ * 读操作先走乐观读：不加锁直接从根往下找，找完再validate，期间没有写操作就直接返回，
+ * 读线程之间完全不互相阻塞；validate失败才退化成读锁重新找一遍。
+ * <p>
+ * 乐观读时可能看到旋转到一半的树，甚至新旧指针混在一起成环，所以下降步数有上限，
+ * 超过上限、或者看到不完整的节点，都当成这次乐观读失败处理
+ *
+ * @param <T> 泛型Key
+ */
+public class ConcurrentRBTree<T extends Comparable<T>> {
+
+    // 红黑树高度不超过2log(n+1)，节点数在int范围内时不会超过64层
+    private static final int MAX_DEPTH = 64;
+
+    private static final int EQUAL = 0;
+    private static final int FLOOR = 1;
+    private static final int CEILING = 2;
+    private static final int LOWER = 3;
+    private static final int HIGHER = 4;
+
+    // 乐观读失败的标记
+    private static final Object RETRY = new Object();
+
+    private final RBTree<T> tree = new RBTree<>();
+
+    private final StampedLock lock = new StampedLock();
+
+    public T searchRBTkey(T key) {
+        return read(key, EQUAL);
+    }
+
+    public boolean contains(T key) {
+        return key != null && read(key, EQUAL) != null;
+    }
+
+    public T floor(T key) {
+        return read(key, FLOOR);
+    }
+
+    public T ceiling(T key) {
+        return read(key, CEILING);
+    }
+
+    public T lower(T key) {
+        return read(key, LOWER);
+    }
+
+    public T higher(T key) {
+        return read(key, HIGHER);
+    }
+
+    public int getSize() {
+        long stamp = lock.tryOptimisticRead();
+        int size = tree.size;
+        if (lock.validate(stamp)) {
+            return size;
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void insertRBTNode(T key) {
+        long stamp = lock.writeLock();
+        try {
+            tree.insertRBTNode(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void deleteRBTNode(T key) {
+        long stamp = lock.writeLock();
+        try {
+            tree.deleteRBTNode(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T read(T key, int mode) {
+        if (key == null) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            Object res = search(key, mode);
+            if (res != RETRY && lock.validate(stamp)) {
+                return (T) res;
+            }
+        }
+        // 乐观读失败，拿读锁再找一遍，这时候树是稳定的
+        stamp = lock.readLock();
+        try {
+            return (T) search(key, mode);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 一次从根往下的查找，不修改任何状态，乐观读和读锁下都用它
+     */
+    private Object search(T key, int mode) {
+        T res = null;
+        RBTree.RBTreeNode<T> node = tree.root;
+        for (int depth = 0; node != null; depth++) {
+            T k = node.key;
+            if (depth > MAX_DEPTH || k == null) {
+                return RETRY;
+            }
+            int cmp = key.compareTo(k);
+            if (cmp == 0 && mode <= CEILING) {
+                return k;
+            }
+            if (cmp < 0 || (cmp == 0 && mode == LOWER)) {
+                if (mode == CEILING || mode == HIGHER) {
+                    res = k;
+                }
+                node = node.left;
+            } else {
+                if (cmp > 0 && (mode == FLOOR || mode == LOWER)) {
+                    res = k;
+                }
+                node = node.right;
+            }
+        }
+        return mode == EQUAL ? null : res;
+    }
+}
@@ -0,0 +1,367 @@
+package rbtree;
+
+import java.util.Iterator;
+
+/**
+ * 区间树，存闭区间[start, end]，回答"哪些区间包含点p"、"哪些区间和[a, b]相交"
+ * <p>
+ * 平衡逻辑全部复用RBTree，按(start, end)排序，相同的区间只存一份，和RBTree一样。
+ * 每个节点多记子树里最大的end和最小的start，RBTree在旋转和插入删除的路径上会调用pushUp重新算它们。
+ * <p>
+ * 在这棵红黑树上再叠一层优先搜索树(McCreight)：每个节点有一个top槽，放子树里还没放到祖先上的区间中end最大的一个，
+ * 另有一个只能放自己key的槽，在top之下、孩子之上。区间只会放在从根到它自己节点的路径上，
+ * top按end是一个堆。和[lo, hi]相交就是start &lt;= hi并且end &gt;= lo：top的end小于lo整棵子树跳过，
+ * 子树最小的start大于hi也整棵跳过，没报告的节点只在hi的查找路径上或者是报告节点的孩子，所以是O(log n + k)。
+ * 旋转时两个节点的top要重新分配，每次O(log n)，插入删除的旋转次数是常数，更新仍是O(log n)。
+ * <p>
+ * 结果通过IntervalConsumer回调，不生成区间对象
+ */
+public class IntervalTree extends RBTree<IntervalTree.Interval> {
+
+    /**
+     * 闭区间[start, end]，先按start再按end比较
+     */
+    public static final class Interval implements Comparable<Interval> {
+        final long start;
+        final long end;
+
+        public Interval(long start, long end) {
+            if (start > end) {
+                throw new IllegalArgumentException("start > end: [" + start + ", " + end + "]");
+            }
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public int compareTo(Interval o) {
+            int cmp = Long.compare(start, o.start);
+            return cmp != 0 ? cmp : Long.compare(end, o.end);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Interval)) {
+                return false;
+            }
+            Interval other = (Interval) o;
+            return start == other.start && end == other.end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(start) * 31 + Long.hashCode(end);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + "]";
+        }
+    }
+
+    /**
+     * 查询结果的回调
+     */
+    @FunctionalInterface
+    public interface IntervalConsumer {
+        void accept(long start, long end);
+    }
+
+    static final class IntervalNode extends RBTreeNode<Interval> {
+        long maxEnd;// 以该节点为根的子树中最大的end
+        long minStart;// 以该节点为根的子树中最小的start
+        Interval top;// 优先搜索树的槽，为空时整棵子树的槽都是空的
+        boolean keyBelow;// 自己的key放在自己的第二个槽里
+
+        IntervalNode(Interval key, RBTreeNode<Interval> parent) {
+            super(key, parent);
+            this.maxEnd = key.end;
+            this.minStart = key.start;
+        }
+    }
+
+    @Override
+    RBTreeNode<Interval> newNode(Interval key, RBTreeNode<Interval> parent) {
+        return new IntervalNode(key, parent);
+    }
+
+    @Override
+    void pushUp(RBTreeNode<Interval> node) {
+        long max = node.key.end;
+        max = Math.max(max, maxEndOf(node.left));
+        max = Math.max(max, maxEndOf(node.right));
+        ((IntervalNode) node).maxEnd = max;
+        // 按(start, end)排序，最小的start在最左边
+        RBTreeNode<Interval> left = node.left;
+        ((IntervalNode) node).minStart = left == null || left.size == 0
+                ? node.key.start : ((IntervalNode) left).minStart;
+    }
+
+    // 孩子和槽都重新分配：up接过node的top，node从新的孩子里补，up原来的top重新往下放
+    @Override
+    void rotated(RBTreeNode<Interval> node, RBTreeNode<Interval> up) {
+        IntervalNode down = (IntervalNode) node;
+        IntervalNode top = (IntervalNode) up;
+        Interval displaced = top.top;
+        top.top = down.top;
+        down.top = null;
+        fillUp(down);
+        if (displaced != null) {
+            siftDown(top, displaced);
+        }
+    }
+
+    @Override
+    void attachNode(RBTreeNode<Interval> parent, int cmp, RBTreeNode<Interval> newNode) {
+        super.attachNode(parent, cmp, newNode);
+        siftDown(root, newNode.key);
+    }
+
+    /**
+     * 先把要删的区间从槽里拿掉；有两个孩子时后继的key要搬到node上，也先拿掉，删完再放回去。
+     * 真正摘掉的节点最多一个孩子，它top里的区间压到孩子里，摘掉时不会丢
+     */
+    @Override
+    void deleteNode(RBTreeNode<Interval> node) {
+        removeItem(node.key);
+        RBTreeNode<Interval> spliced = node;
+        Interval moved = null;
+        if (node.left != null && node.right != null) {
+            spliced = successor(node);
+            moved = spliced.key;
+            removeItem(moved);
+        }
+        IntervalNode s = (IntervalNode) spliced;
+        if (s.top != null) {
+            Interval item = s.top;
+            s.top = null;
+            siftDown(s.left != null ? s.left : s.right, item);
+        }
+        super.deleteNode(node);
+        if (moved != null) {
+            siftDown(root, moved);
+        }
+    }
+
+    /**
+     * 建完树后自底向上填槽，和建堆一样是O(n)
+     */
+    @Override
+    public void buildFromSorted(Iterator<? extends Interval> it, int size) {
+        super.buildFromSorted(it, size);
+        heapify(root);
+    }
+
+    private void heapify(RBTreeNode<Interval> node) {
+        if (node == null) {
+            return;
+        }
+        heapify(node.left);
+        heapify(node.right);
+        IntervalNode v = (IntervalNode) node;
+        v.top = null;
+        v.keyBelow = true;
+        fillUp(v);
+    }
+
+    // a的end更大，end相同时按区间顺序，保证是全序
+    private static boolean beats(Interval a, Interval b) {
+        return a.end > b.end || (a.end == b.end && a.compareTo(b) < 0);
+    }
+
+    // 区间item的节点在node的子树里，从node往下找位置，沿途end小的往下让
+    private static void siftDown(RBTreeNode<Interval> node, Interval item) {
+        while (true) {
+            IntervalNode v = (IntervalNode) node;
+            if (v.top == null) {
+                v.top = item;
+                return;
+            }
+            if (beats(item, v.top)) {
+                Interval t = v.top;
+                v.top = item;
+                item = t;
+            }
+            int cmp = item.compareTo(v.key);
+            if (cmp == 0) {
+                v.keyBelow = true;
+                return;
+            }
+            node = cmp < 0 ? v.left : v.right;
+        }
+    }
+
+    // node的top空了，从自己的key和两个孩子的top里拿最大的补上，被拿走的孩子接着往下补
+    private static void fillUp(IntervalNode v) {
+        while (true) {
+            Interval best = v.keyBelow ? v.key : null;
+            IntervalNode from = null;
+            IntervalNode left = (IntervalNode) v.left;
+            IntervalNode right = (IntervalNode) v.right;
+            if (left != null && left.top != null && (best == null || beats(left.top, best))) {
+                best = left.top;
+                from = left;
+            }
+            if (right != null && right.top != null && (best == null || beats(right.top, best))) {
+                best = right.top;
+                from = right;
+            }
+            v.top = best;
+            if (from == null) {
+                if (best != null) {
+                    v.keyBelow = false;
+                }
+                return;
+            }
+            from.top = null;
+            v = from;
+        }
+    }
+
+    // 区间一定在从根到它自己节点的路径上
+    private void removeItem(Interval item) {
+        RBTreeNode<Interval> node = root;
+        while (node != null) {
+            IntervalNode v = (IntervalNode) node;
+            if (item.equals(v.top)) {
+                v.top = null;
+                fillUp(v);
+                return;
+            }
+            int cmp = item.compareTo(v.key);
+            if (cmp == 0) {
+                v.keyBelow = false;
+                return;
+            }
+            node = cmp < 0 ? v.left : v.right;
+        }
+    }
+
+    // 空节点和删除中还挂着的节点(size为0)都不算
+    private static long maxEndOf(RBTreeNode<Interval> node) {
+        return node == null || node.size == 0 ? Long.MIN_VALUE : ((IntervalNode) node).maxEnd;
+    }
+
+    /**
+     * 插入区间[start, end]，已经存在就不插入
+     */
+    public void insert(long start, long end) {
+        insertRBTNode(new Interval(start, end));
+    }
+
+    /**
+     * 删除区间[start, end]
+     *
+     * @return 区间存在并被删除时返回true
+     */
+    public boolean delete(long start, long end) {
+        RBTreeNode<Interval> node = getRBTNode(new Interval(start, end));
+        if (node == null) {
+            return false;
+        }
+        deleteNode(node);
+        return true;
+    }
+
+    public boolean contains(long start, long end) {
+        return getRBTNode(new Interval(start, end)) != null;
+    }
+
+    /**
+     * 所有包含点p的区间，O(log n + k)，回调的顺序不保证
+     */
+    public void stab(long p, IntervalConsumer action) {
+        overlap(root, p, p, action);
+    }
+
+    /**
+     * 所有和[lo, hi]相交的区间，O(log n + k)，回调的顺序不保证，要按顺序用overlapSorted
+     */
+    public void overlap(long lo, long hi, IntervalConsumer action) {
+        if (lo > hi) {
+            return;
+        }
+        overlap(root, lo, hi, action);
+    }
+
+    // 在优先搜索树上走，孩子和自己的key都是top的下一层
+    private void overlap(RBTreeNode<Interval> node, long lo, long hi, IntervalConsumer action) {
+        IntervalNode v = (IntervalNode) node;
+        if (v == null || v.top == null || v.top.end < lo || v.minStart > hi) {
+            return;
+        }
+        if (v.top.start <= hi) {
+            action.accept(v.top.start, v.top.end);
+        }
+        Interval key = v.key;
+        if (v.keyBelow && key.start <= hi && key.end >= lo) {
+            action.accept(key.start, key.end);
+        }
+        overlap(v.left, lo, hi, action);
+        if (key.start <= hi) {
+            overlap(v.right, lo, hi, action);
+        }
+    }
+
+    /**
+     * 所有和[lo, hi]相交的区间，按(start, end)从小到大回调
+     * <p>
+     * 按中序走，只进入maxEnd &gt;= lo并且可能有start &lt;= hi的子树，报告k个区间时是O(min(n, k log n))
+     */
+    public void overlapSorted(long lo, long hi, IntervalConsumer action) {
+        if (lo > hi) {
+            return;
+        }
+        overlapSorted(root, lo, hi, action);
+    }
+
+    private void overlapSorted(RBTreeNode<Interval> node, long lo, long hi, IntervalConsumer action) {
+        while (node != null && ((IntervalNode) node).maxEnd >= lo) {
+            overlapSorted(node.left, lo, hi, action);
+            Interval interval = node.key;
+            if (interval.start > hi) {
+                return;// 右子树的start只会更大
+            }
+            if (interval.end >= lo) {
+                action.accept(interval.start, interval.end);
+            }
+            node = node.right;// 右子树改成循环，递归深度只跟左边走
+        }
+    }
+
+    /**
+     * 是否有区间和[lo, hi]相交，O(log n)
+     * <p>
+     * 左子树的maxEnd &gt;= lo时，如果左子树里没有相交的区间，那么它里面end最大的那个区间start &gt; hi，
+     * 右子树的start只会更大，也不可能相交，所以每层只需要往一边走
+     */
+    public boolean overlaps(long lo, long hi) {
+        if (lo > hi) {
+            return false;
+        }
+        RBTreeNode<Interval> node = root;
+        while (node != null) {
+            Interval interval = node.key;
+            if (interval.start <= hi && interval.end >= lo) {
+                return true;
+            }
+            if (node.left != null && ((IntervalNode) node.left).maxEnd >= lo) {
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return false;
+    }
+}
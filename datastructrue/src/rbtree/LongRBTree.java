@@ -0,0 +1,584 @@
+package rbtree;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.LongConsumer;
+
+/**
+ * key为long的红黑树，节点存放在并行的原始类型数组中
+ * <p>
+ * 节点用数组下标表示，keys/left/right是并行数组，颜色用位图存，红色为1。
+ * 下标0是哨兵NIL(黑色)，真正的节点从1开始，这样和算法导论里的写法一一对应，少了很多空判断。
+ * 删除的槽位挂在空闲链表上(借用left数组串起来)，插入时优先复用。
+ * <p>
+ * 不存parent，插入删除时从根往下走，把路径记在path里，调整时从path上找父节点和祖父节点，
+ * 和AvlTree的迭代写法一样。
+ * <p>
+ * 每个节点占用 8(key) + 8(两个下标) 字节加1个颜色位。RBTree&lt;Long&gt;的一个节点对象加上Long对象大约56字节(压缩指针)，
+ * 小了3.5倍左右，比较也都是原始类型比较
+ */
+public class LongRBTree {
+
+    private static final int NIL = 0;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // 红黑树高度不超过 2log(n + 1)，n不超过int范围时不到64层，删除的case1会在路径里多插一个节点
+    private static final int MAX_HEIGHT = 66;
+
+    private long[] keys;
+    private int[] left;
+    private int[] right;
+    private long[] red;// 颜色位图，1表示红色
+
+    // 插入删除时从根到当前节点的路径，path[0]是root
+    private final int[] path = new int[MAX_HEIGHT];
+
+    private int root = NIL;
+    private int size;
+
+    private int nextSlot = 1;// 还没用过的第一个槽位
+    private int freeHead = NIL;// 空闲链表头
+
+    public LongRBTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongRBTree(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1) + 1;
+        keys = new long[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        red = new long[(capacity + 63) >>> 6];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(red, 0L);
+        root = NIL;
+        size = 0;
+        nextSlot = 1;
+        freeHead = NIL;
+    }
+
+    //--颜色位图
+
+    private boolean isRed(int node) {
+        return (red[node >>> 6] & (1L << node)) != 0;
+    }
+
+    private void setRed(int node) {
+        red[node >>> 6] |= 1L << node;
+    }
+
+    private void setBlack(int node) {
+        red[node >>> 6] &= ~(1L << node);
+    }
+
+    private void setColor(int node, boolean isRed) {
+        if (isRed) {
+            setRed(node);
+        } else {
+            setBlack(node);
+        }
+    }
+
+    //--槽位分配
+
+    private int allocate(long key) {
+        int node;
+        if (freeHead != NIL) {
+            node = freeHead;
+            freeHead = left[node];
+        } else {
+            if (nextSlot == keys.length) {
+                grow();
+            }
+            node = nextSlot++;
+        }
+        keys[node] = key;
+        left[node] = NIL;
+        right[node] = NIL;
+        return node;
+    }
+
+    private void release(int node) {
+        setBlack(node);
+        left[node] = freeHead;
+        freeHead = node;
+    }
+
+    private void grow() {
+        int capacity = keys.length + (keys.length >> 1) + 1;
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+    }
+
+    //--查询
+
+    public boolean contains(long key) {
+        return getNode(key) != NIL;
+    }
+
+    private int getNode(long key) {
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key < k) {
+                node = left[node];
+            } else if (key > k) {
+                node = right[node];
+            } else {
+                return node;
+            }
+        }
+        return NIL;
+    }
+
+    public long first() {
+        if (root == NIL) {
+            throw new NoSuchElementException();
+        }
+        return keys[minimum(root)];
+    }
+
+    public long last() {
+        if (root == NIL) {
+            throw new NoSuchElementException();
+        }
+        int node = root;
+        while (right[node] != NIL) {
+            node = right[node];
+        }
+        return keys[node];
+    }
+
+    /**
+     * 小于等于key的最大key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return floor key
+     */
+    public long floor(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key == k) {
+                return k;
+            } else if (key > k) {
+                res = k;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 大于等于key的最小key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return ceiling key
+     */
+    public long ceiling(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key == k) {
+                return k;
+            } else if (key < k) {
+                res = k;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 严格小于key的最大key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return lower key
+     */
+    public long lower(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key > k) {
+                res = k;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 严格大于key的最小key
+     *
+     * @param key    查询的key
+     * @param absent 不存在时的返回值
+     * @return higher key
+     */
+    public long higher(long key, long absent) {
+        long res = absent;
+        int node = root;
+        while (node != NIL) {
+            long k = keys[node];
+            if (key < k) {
+                res = k;
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return res;
+    }
+
+    private int minimum(int node) {
+        while (left[node] != NIL) {
+            node = left[node];
+        }
+        return node;
+    }
+
+    /**
+     * 按从小到大的顺序遍历，用一个树高大小的栈做中序遍历
+     *
+     * @param action 回调
+     */
+    public void forEach(LongConsumer action) {
+        int[] stack = new int[MAX_HEIGHT];
+        int top = 0;
+        int node = root;
+        while (node != NIL || top > 0) {
+            while (node != NIL) {
+                stack[top++] = node;
+                node = left[node];
+            }
+            node = stack[--top];
+            action.accept(keys[node]);
+            node = right[node];
+        }
+    }
+
+    //--批量建树
+
+    /**
+     * 用严格递增的数组的前n个元素直接建树，原来的节点都会被丢弃
+     * <p>
+     * 和RBTree.buildFromSorted一样，放成完全平衡的二叉树，只有不满的最底层染红，不需要比较和旋转，O(n)。
+     * 槽位按中序分配，建完之后数组里的key也是有序的
+     *
+     * @param sorted 严格递增的key
+     * @param n      key的个数
+     */
+    public void buildFromSorted(long[] sorted, int n) {
+        clear();
+        if (keys.length < n + 1) {
+            int capacity = n + 1;
+            keys = new long[capacity];
+            left = new int[capacity];
+            right = new int[capacity];
+            red = new long[(capacity + 63) >>> 6];
+        }
+        System.arraycopy(sorted, 0, keys, 1, n);
+        nextSlot = n + 1;
+        size = n;
+        root = buildFromSorted(0, 1, n, 31 - Integer.numberOfLeadingZeros(n + 1));
+    }
+
+    // 用槽位[lo, hi]建子树，返回子树的根
+    private int buildFromSorted(int level, int lo, int hi, int redLevel) {
+        if (hi < lo) {
+            return NIL;
+        }
+        int mid = (lo + hi) >>> 1;
+        int l = buildFromSorted(level + 1, lo, mid - 1, redLevel);
+        int r = buildFromSorted(level + 1, mid + 1, hi, redLevel);
+        left[mid] = l;
+        right[mid] = r;
+        if (level == redLevel) {
+            setRed(mid);
+        }
+        return mid;
+    }
+
+    //--旋转
+
+    /**
+     * 以node为轴左旋，p是node的父节点，NIL表示node是root
+     */
+    private void rotateLeft(int node, int p) {
+        int r = right[node];
+        right[node] = left[r];
+        left[r] = node;
+        replaceChild(p, node, r);
+    }
+
+    private void rotateRight(int node, int p) {
+        int l = left[node];
+        left[node] = right[l];
+        right[l] = node;
+        replaceChild(p, node, l);
+    }
+
+    /**
+     * 把p下面的孩子old换成v，p是NIL时v成为root
+     */
+    private void replaceChild(int p, int old, int v) {
+        if (p == NIL) {
+            root = v;
+        } else if (left[p] == old) {
+            left[p] = v;
+        } else {
+            right[p] = v;
+        }
+    }
+
+    //--插入
+
+    /**
+     * 插入key
+     *
+     * @param key 插入的key
+     * @return key已经存在返回false
+     */
+    public boolean insert(long key) {
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            path[depth++] = node;
+            long k = keys[node];
+            if (key < k) {
+                node = left[node];
+            } else if (key > k) {
+                node = right[node];
+            } else {
+                return false;// 相同的，不插入了
+            }
+        }
+        int newNode = allocate(key);
+        if (depth == 0) {
+            root = newNode;
+        } else {
+            int p = path[depth - 1];
+            if (key < keys[p]) {
+                left[p] = newNode;
+            } else {
+                right[p] = newNode;
+            }
+        }
+        path[depth] = newNode;
+        size++;
+        fixAfterInsert(depth);
+        return true;
+    }
+
+    /**
+     * 插入后的调整，和RBTree.fixAfterInsert一样，父节点、祖父节点从path上取
+     *
+     * @param depth 新节点在path中的位置
+     */
+    private void fixAfterInsert(int depth) {
+        int node = path[depth];
+        setRed(node);
+        // depth >= 2 时才有祖父节点，父节点是红色的话一定不是root，所以一定有祖父节点
+        while (depth >= 2 && isRed(path[depth - 1])) {
+            int p = path[depth - 1];
+            int g = path[depth - 2];
+            int gg = depth >= 3 ? path[depth - 3] : NIL;
+            if (p == left[g]) {
+                int uncle = right[g];
+                if (isRed(uncle)) {
+                    // case1 : 叔叔节点是红色
+                    setBlack(p);
+                    setBlack(uncle);
+                    setRed(g);
+                    depth -= 2;
+                } else {
+                    if (node == right[p]) {
+                        // case2 : node是父节点的右孩子，转成case3，原来的node变成父节点
+                        rotateLeft(p, g);
+                        p = node;
+                    }
+                    // case3
+                    setBlack(p);
+                    setRed(g);
+                    rotateRight(g, gg);
+                    break;
+                }
+            } else {// symmetric
+                int uncle = left[g];
+                if (isRed(uncle)) {
+                    setBlack(p);
+                    setBlack(uncle);
+                    setRed(g);
+                    depth -= 2;
+                } else {
+                    if (node == left[p]) {
+                        rotateRight(p, g);
+                        p = node;
+                    }
+                    setBlack(p);
+                    setRed(g);
+                    rotateLeft(g, gg);
+                    break;
+                }
+            }
+            node = path[depth];
+        }
+        setBlack(root);// root永远是黑色的
+    }
+
+    //--删除
+
+    /**
+     * 删除key
+     *
+     * @param key 删除的key
+     * @return key不存在返回false
+     */
+    public boolean delete(long key) {
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            path[depth] = node;
+            long k = keys[node];
+            if (key < k) {
+                node = left[node];
+            } else if (key > k) {
+                node = right[node];
+            } else {
+                break;
+            }
+            depth++;
+        }
+        if (node == NIL) {
+            return false;
+        }
+        if (left[node] != NIL && right[node] != NIL) {
+            // 两个孩子，把后继的key搬过来，改成删除后继，后继最多只有右孩子
+            int succ = right[node];
+            path[++depth] = succ;
+            while (left[succ] != NIL) {
+                succ = left[succ];
+                path[++depth] = succ;
+            }
+            keys[node] = keys[succ];
+            node = succ;
+        }
+        // 此时node最多一个孩子，用孩子顶替node，孩子可能是NIL
+        int replace = left[node] != NIL ? left[node] : right[node];
+        int p = depth > 0 ? path[depth - 1] : NIL;
+        replaceChild(p, node, replace);
+        path[depth] = replace;
+        if (!isRed(node)) {
+            fixAfterDeletion(depth);
+        }
+        release(node);
+        size--;
+        return true;
+    }
+
+    /**
+     * 删除后的调整，和RBTree.fixAfterDeletion的四种case一样
+     * <p>
+     * 顶替的节点可能是NIL，没法用父节点的left是不是它来判断方向：
+     * 它是NIL时兄弟一定不是NIL(被删的黑节点那边少了一层黑高，另一边至少有一层)，所以left[p] == NIL也就说明它在左边
+     *
+     * @param depth 顶替节点在path中的位置
+     */
+    private void fixAfterDeletion(int depth) {
+        int node = path[depth];
+        while (depth > 0 && !isRed(node)) {
+            int p = path[depth - 1];
+            int gp = depth >= 2 ? path[depth - 2] : NIL;
+            if (node == left[p]) {
+                int brother = right[p];
+                if (isRed(brother)) {
+                    // case1 ：兄弟是红色节点，旋转后兄弟成了p的父节点，路径上要插进去
+                    setBlack(brother);
+                    setRed(p);
+                    rotateLeft(p, gp);
+                    path[depth - 1] = brother;
+                    path[depth] = p;
+                    path[++depth] = node;
+                    gp = brother;
+                    brother = right[p];
+                }
+                if (!isRed(left[brother]) && !isRed(right[brother])) {
+                    // case2 : 兄弟节点是黑色，并且两个孩子也是黑色
+                    setRed(brother);
+                    node = p;
+                    depth--;
+                } else {
+                    if (!isRed(right[brother])) {
+                        // case3 : 兄弟的左孩子是红色，右孩子是黑色
+                        setBlack(left[brother]);
+                        setRed(brother);
+                        rotateRight(brother, p);
+                        brother = right[p];
+                    }
+                    // case4 : 兄弟的右孩子是红色
+                    setColor(brother, isRed(p));
+                    setBlack(p);
+                    setBlack(right[brother]);
+                    rotateLeft(p, gp);
+                    node = root;
+                    break;
+                }
+            } else {// symmetric
+                int brother = left[p];
+                if (isRed(brother)) {
+                    setBlack(brother);
+                    setRed(p);
+                    rotateRight(p, gp);
+                    path[depth - 1] = brother;
+                    path[depth] = p;
+                    path[++depth] = node;
+                    gp = brother;
+                    brother = left[p];
+                }
+                if (!isRed(left[brother]) && !isRed(right[brother])) {
+                    setRed(brother);
+                    node = p;
+                    depth--;
+                } else {
+                    if (!isRed(left[brother])) {
+                        setBlack(right[brother]);
+                        setRed(brother);
+                        rotateLeft(brother, p);
+                        brother = left[p];
+                    }
+                    setColor(brother, isRed(p));
+                    setBlack(p);
+                    setBlack(left[brother]);
+                    rotateRight(p, gp);
+                    node = root;
+                    break;
+                }
+            }
+        }
+        setBlack(node);
+    }
+}
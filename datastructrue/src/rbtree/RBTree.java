@@ -1,5 +1,13 @@
 package rbtree;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
 /**
  * 红黑树的实现
  * <p>
@@ -24,9 +32,13 @@ package rbtree;
  *
  * @param <T> 泛型Key
  */
-public class RBTree<T extends Comparable<T>> {
+public class RBTree<T extends Comparable<T>> implements Iterable<T> {
+
+    RBTreeNode<T> root;// 红黑树根节点
 
-    private RBTreeNode<T> root;// 红黑树根节点
+    int size;// 节点个数
+
+    int modCount;// 结构修改(增删节点)的次数，子类用来检查回调里有没有改树
 
     // Red-black mechanics
 
@@ -38,12 +50,13 @@ public class RBTree<T extends Comparable<T>> {
      *
      * @param <T>
      */
-    private static final class RBTreeNode<T extends Comparable<T>> {
+    static class RBTreeNode<T extends Comparable<T>> {
         T key;// 键值
         RBTreeNode<T> left;
         RBTreeNode<T> right;
         RBTreeNode<T> parent;
         boolean color = BLACK;// 节点默认黑色
+        int size = 1;// 以该节点为根的子树节点个数
 
         RBTreeNode(T key) {
             this(key, null);
@@ -58,6 +71,15 @@ public class RBTree<T extends Comparable<T>> {
             return key;
         }
 
+        /**
+         * 删除有两个孩子的节点时，后继节点的内容搬到当前节点
+         *
+         * @param other 后继节点
+         */
+        void replaceWith(RBTreeNode<T> other) {
+            this.key = other.key;
+        }
+
         @Override
         public int hashCode() {
             return key == null ? 0 : key.hashCode();
@@ -130,8 +152,32 @@ public class RBTree<T extends Comparable<T>> {
     private T keyOf(RBTreeNode<T> node) {
         return node == null ? null : node.key;
     }
+
+    /**
+     * 关于子树的节点个数
+     *
+     * @param node RBTNode
+     * @return node.size
+     */
+    private int sizeOf(RBTreeNode<T> node) {
+        return node == null ? 0 : node.size;
+    }
     //--以上设计这些方法避免大量的空指针判断
 
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
     /**
      * 获取最小的key
      *
@@ -186,6 +232,252 @@ public class RBTree<T extends Comparable<T>> {
         return node;
     }
 
+    /**
+     * 查询key的排名，从1开始
+     * <p>
+     * 和Treap、FhqTreap、LongTreap等一样，不存在时返回0，0不会是合法的排名
+     *
+     * @param key 查询的key
+     * @return key的排名，key不存在返回0
+     */
+    public int rank(T key) {
+        if (key == null) {
+            return 0;
+        }
+        int ans = 0;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0) {
+                node = node.left;
+            } else {
+                ans += sizeOf(node.left) + 1;
+                if (cmp == 0) {
+                    return ans;
+                }
+                node = node.right;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 返回排名为k的key(从小到大)
+     *
+     * @param k 排名，从1开始
+     * @return 排名为k的key，k越界返回null
+     */
+    public T select(int k) {
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            int leftRank = sizeOf(node.left);
+            if (k <= leftRank) {
+                node = node.left;
+            } else if (k == leftRank + 1) {
+                return node.key;
+            } else {
+                k -= leftRank + 1;
+                node = node.right;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 统计落在[lo, hi]中的key个数
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     * @return key个数
+     */
+    public int countInRange(T lo, T hi) {
+        if (lo == null || hi == null || lo.compareTo(hi) > 0) {
+            return 0;
+        }
+        return countLess(hi, true) - countLess(lo, false);
+    }
+
+    /**
+     * 统计小于key(inclusive为true时是小于等于)的key个数
+     */
+    private int countLess(T key, boolean inclusive) {
+        int ans = 0;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                node = node.left;
+            } else {
+                ans += sizeOf(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * 小于等于key的最大key
+     *
+     * @param key 查询的key
+     * @return floor key，不存在返回null
+     */
+    public T floor(T key) {
+        return keyOf(getFloorNode(key));
+    }
+
+    /**
+     * 大于等于key的最小key
+     *
+     * @param key 查询的key
+     * @return ceiling key，不存在返回null
+     */
+    public T ceiling(T key) {
+        return keyOf(getCeilingNode(key));
+    }
+
+    /**
+     * 严格小于key的最大key
+     *
+     * @param key 查询的key
+     * @return lower key，不存在返回null
+     */
+    public T lower(T key) {
+        RBTreeNode<T> res = null;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            if (key.compareTo(node.key) > 0) {
+                res = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return keyOf(res);
+    }
+
+    /**
+     * 严格大于key的最小key
+     *
+     * @param key 查询的key
+     * @return higher key，不存在返回null
+     */
+    public T higher(T key) {
+        RBTreeNode<T> res = null;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            if (key.compareTo(node.key) < 0) {
+                res = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return keyOf(res);
+    }
+
+    private RBTreeNode<T> getFloorNode(T key) {
+        RBTreeNode<T> res = null;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                return node;
+            } else if (cmp > 0) {
+                res = node;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return res;
+    }
+
+    private RBTreeNode<T> getCeilingNode(T key) {
+        RBTreeNode<T> res = null;
+        RBTreeNode<T> node = root;
+        while (node != null) {
+            int cmp = key.compareTo(node.key);
+            if (cmp == 0) {
+                return node;
+            } else if (cmp < 0) {
+                res = node;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 按中序遍历[lo, hi]中的key
+     * <p>
+     * 先O(log n)找到ceiling(lo)，之后沿着successor走，successor借助parent指针，均摊O(1)，
+     * 整个范围扫描O(log n + k)，中间不分配对象
+     *
+     * @param lo     下界，包含
+     * @param hi     上界，包含
+     * @param action 回调
+     */
+    public void forEachInRange(T lo, T hi, Consumer<? super T> action) {
+        int expectedModCount = modCount;
+        RBTreeNode<T> node = getCeilingNode(lo);
+        while (node != null && node.key.compareTo(hi) <= 0) {
+            action.accept(node.key);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            node = successor(node);
+        }
+    }
+
+    /**
+     * 中序迭代器，沿successor走，迭代过程中不分配对象
+     * <p>
+     * 迭代期间不能增删节点，检查到了抛ConcurrentModificationException，不会沿着已经断开的指针继续走
+     *
+     * @return 从小到大的迭代器
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private RBTreeNode<T> next = getFirstNode();
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                T key = next.key;
+                next = successor(next);
+                return key;
+            }
+        };
+    }
+
+    /**
+     * 和iterator一样，回调里增删节点会抛ConcurrentModificationException
+     */
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        int expectedModCount = modCount;
+        for (RBTreeNode<T> node = getFirstNode(); node != null; node = successor(node)) {
+            action.accept(node.key);
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
     /**
      * 寻找当前节点的前驱节点
      *
@@ -280,6 +572,12 @@ public class RBTree<T extends Comparable<T>> {
         // 交换node和right的父子关系
         right.left = node;
         node.parent = right;
+        // right接管了node原来的整棵子树，node的子树重新计算
+        right.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+        pushUp(node);
+        pushUp(right);
+        rotated(node, right);
     }
 
     /**
@@ -310,6 +608,12 @@ public class RBTree<T extends Comparable<T>> {
         // 交换node和left的父子关系
         left.right = node;
         node.parent = left;
+        // left接管了node原来的整棵子树，node的子树重新计算
+        left.size = node.size;
+        node.size = sizeOf(node.left) + sizeOf(node.right) + 1;
+        pushUp(node);
+        pushUp(left);
+        rotated(node, left);
     }
 
     /**
@@ -329,7 +633,7 @@ public class RBTree<T extends Comparable<T>> {
      * @param key 查询的key
      * @return RBTNode
      */
-    private RBTreeNode<T> getRBTNode(T key) {
+    RBTreeNode<T> getRBTNode(T key) {
         if (key == null) {
             return null;
         }
@@ -373,13 +677,9 @@ public class RBTree<T extends Comparable<T>> {
             return;// 需要compare的元素，都不能为空，简单点，不报错了
         }
         RBTreeNode<T> node = root;
-        if (node == null) {
-            root = new RBTreeNode<>(key);// 根节点为空，生成根节点
-            return;
-        }
-        int cmp;
-        RBTreeNode<T> parent;// 父节点标记插入的位置
-        do {
+        int cmp = 0;
+        RBTreeNode<T> parent = null;// 父节点标记插入的位置
+        while (node != null) {
             parent = node;// 父节点记录
             cmp = key.compareTo(node.key);
             // 比当前节点小，往左子树迭代，否则往右子树迭代
@@ -390,15 +690,69 @@ public class RBTree<T extends Comparable<T>> {
             } else {
                 return;// 相同的，不插入了，直接返回
             }
-        } while (node != null);
-        // 新节点生成
-        RBTreeNode<T> newNode = new RBTreeNode<>(key);
+        }
+        attachNode(parent, cmp, newNode(key, parent));
+    }
+
+    /**
+     * 生成新节点，子类可以换成带额外内容的节点
+     *
+     * @param key    key
+     * @param parent 父节点
+     * @return RBTNode
+     */
+    RBTreeNode<T> newNode(T key, RBTreeNode<T> parent) {
+        return new RBTreeNode<>(key, parent);
+    }
+
+    /**
+     * 孩子变了之后重新计算节点上的附加信息，子类按需覆盖，默认什么都不做
+     * <p>
+     * 旋转之后、插入删除时路径上的节点，都会自底向上调用一次。
+     * 删除叶子时被删的节点在调整期间还挂在树上，它的size是0，计算时要跳过
+     *
+     * @param node RBTNode
+     */
+    void pushUp(RBTreeNode<T> node) {
+    }
+
+    /**
+     * 旋转完成后调用，在两个节点的pushUp之后，子类按需覆盖，默认什么都不做
+     * <p>
+     * 给不能只由孩子算出来、要在节点之间搬动的附加信息用
+     *
+     * @param node 原来子树的根，现在是up的孩子
+     * @param up   新的子树根
+     */
+    void rotated(RBTreeNode<T> node, RBTreeNode<T> up) {
+    }
+
+    /**
+     * 把新节点挂到查找结束的位置上，然后做插入后的调整
+     *
+     * @param parent  查找结束时的父节点，为空表示树是空的
+     * @param cmp     key和parent.key的比较结果
+     * @param newNode 新节点
+     */
+    void attachNode(RBTreeNode<T> parent, int cmp, RBTreeNode<T> newNode) {
+        size++;
+        modCount++;
+        if (parent == null) {
+            root = newNode;// 根节点为空，生成根节点
+            root.color = BLACK;
+            return;
+        }
         // 比父节点小，为左孩子，否则为右孩子
         if (cmp < 0) {
             parent.left = newNode;
         } else {
             parent.right = newNode;
         }
+        // 路径上的子树大小+1，要在旋转之前做，旋转时依赖孩子的size是对的
+        for (RBTreeNode<T> p = parent; p != null; p = p.parent) {
+            p.size++;
+            pushUp(p);
+        }
         // 节点插入后的调整
 //        fixInsert(newNode);
         fixAfterInsert(newNode);
@@ -621,13 +975,24 @@ public class RBTree<T extends Comparable<T>> {
         if (node == null) {
             return;// key都不存在，就不管了
         }
+        deleteNode(node);
+    }
+
+    /**
+     * 删除树中已有的节点
+     *
+     * @param node RBTNode
+     */
+    void deleteNode(RBTreeNode<T> node) {
+        size--;
+        modCount++;
         // 如果node有两个孩子节点，用他的后继节点来代替他，当然用前驱也可以，是一样的
         // 为什么先判断两个孩子节点呢，因为两个孩子节点会转化为只有一个孩子节点情况，将问题归纳为一种情况
         if (node.left != null && node.right != null) {
             // 找到后继节点
             RBTreeNode<T> successorNode = successor(node);
             // 后继节点内容替换当前节点内容
-            node.key = successorNode.key;
+            node.replaceWith(successorNode);
             // 删除节点指针指向node的后继节点
             node = successorNode;
         }
@@ -647,6 +1012,11 @@ public class RBTree<T extends Comparable<T>> {
             }
             // Null out links so they are OK to use by fixAfterDeletion.
             node.parent = node.left = node.right = null;
+            // 路径上的子树大小-1
+            for (RBTreeNode<T> p = parent; p != null; p = p.parent) {
+                p.size--;
+                pushUp(p);
+            }
 
             // 黑色节点需要调整
             if (node.color == BLACK) {
@@ -660,6 +1030,12 @@ public class RBTree<T extends Comparable<T>> {
                 root = null;// 根节点没了，也不用管后面了
                 return;
             }
+            // node调整时还挂在树上，把它的size记成0，旋转时就不会算进去
+            node.size = 0;
+            for (RBTreeNode<T> p = parent; p != null; p = p.parent) {
+                p.size--;
+                pushUp(p);
+            }
             // 删除的如果是黑节点，还得做调整
             if (node.color == BLACK) {
                 fixAfterDeletion(node);
@@ -774,4 +1150,95 @@ public class RBTree<T extends Comparable<T>> {
         // 节点设置为黑色，兼容node两种颜色的情况
         setColor(node, BLACK);// 节点变黑
     }
+
+    /**
+     * 批量插入
+     * <p>
+     * 树为空并且输入严格递增时，直接O(n)建树，否则逐个插入
+     *
+     * @param keys 插入的key
+     */
+    public void putAll(Collection<? extends T> keys) {
+        if (root == null && !keys.isEmpty() && isStrictlyAscending(keys)) {
+            buildFromSorted(keys.iterator(), keys.size());
+            return;
+        }
+        for (T key : keys) {
+            insertRBTNode(key);
+        }
+    }
+
+    /**
+     * 用严格递增的数组直接建树，原来的节点都会被丢弃
+     *
+     * @param keys 严格递增的key
+     */
+    public void buildFromSorted(T[] keys) {
+        buildFromSorted(Arrays.asList(keys).iterator(), keys.length);
+    }
+
+    /**
+     * 用严格递增的序列直接建树，原来的节点都会被丢弃
+     * <p>
+     * 和TreeMap.buildFromSorted一样，按中序把序列放成一棵完全平衡的二叉树，
+     * 除了最底下那一层不满的节点染成红色，其他节点都是黑色，这样每条路径的黑色高度相同，
+     * 整个过程不需要比较和旋转，O(n)
+     *
+     * @param it   严格递增的key
+     * @param size key的个数
+     */
+    public void buildFromSorted(Iterator<? extends T> it, int size) {
+        this.size = size;
+        modCount++;
+        root = buildFromSorted(0, 0, size - 1, computeRedLevel(size), it);
+    }
+
+    private RBTreeNode<T> buildFromSorted(int level, int lo, int hi, int redLevel, Iterator<? extends T> it) {
+        if (hi < lo) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        // 中序：先建左子树，再取当前key，最后建右子树
+        RBTreeNode<T> left = null;
+        if (lo < mid) {
+            left = buildFromSorted(level + 1, lo, mid - 1, redLevel, it);
+        }
+        RBTreeNode<T> middle = newNode(it.next(), null);
+        middle.size = hi - lo + 1;
+        if (level == redLevel) {
+            middle.color = RED;// 最底层不满的那一层染红
+        }
+        if (left != null) {
+            middle.left = left;
+            left.parent = middle;
+        }
+        if (mid < hi) {
+            RBTreeNode<T> right = buildFromSorted(level + 1, mid + 1, hi, redLevel, it);
+            middle.right = right;
+            right.parent = middle;
+        }
+        pushUp(middle);
+        return middle;
+    }
+
+    /**
+     * size个节点的完全平衡二叉树中，需要染红的层，也就是不满的最底层
+     */
+    private static int computeRedLevel(int size) {
+        return 31 - Integer.numberOfLeadingZeros(size + 1);
+    }
+
+    private boolean isStrictlyAscending(Collection<? extends T> keys) {
+        if (keys instanceof SortedSet && ((SortedSet<?>) keys).comparator() == null) {
+            return true;
+        }
+        T prev = null;
+        for (T key : keys) {
+            if (key == null || (prev != null && prev.compareTo(key) >= 0)) {
+                return false;
+            }
+            prev = key;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,235 @@
+package rbtree;
+
+import java.util.ConcurrentModificationException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 基于RBTree的有序Map
+ * <p>
+ * 平衡逻辑全部复用RBTree，节点换成带value的MapNode。
+ * put/compute/merge都只做一次从根往下的查找：找到了就原地改value，找不到就直接挂在查找结束的位置上，
+ * 读-改-写不需要先get再put走两遍树
+ *
+ * @param <K> 泛型Key
+ * @param <V> 泛型Value
+ */
+public class RBTreeMap<K extends Comparable<K>, V> extends RBTree<K> {
+
+    static final class MapNode<K extends Comparable<K>, V> extends RBTreeNode<K> {
+        V value;
+
+        MapNode(K key, RBTreeNode<K> parent) {
+            super(key, parent);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void replaceWith(RBTreeNode<K> other) {
+            super.replaceWith(other);
+            this.value = ((MapNode<K, V>) other).value;
+        }
+    }
+
+    /**
+     * descend的结果：找到了node不为空；没找到时parent/cmp是新节点的挂载位置
+     */
+    private static final class Position<K extends Comparable<K>> {
+        RBTreeNode<K> node;
+        RBTreeNode<K> parent;
+        int cmp;
+    }
+
+    @Override
+    RBTreeNode<K> newNode(K key, RBTreeNode<K> parent) {
+        return new MapNode<>(key, parent);
+    }
+
+    public V get(K key) {
+        MapNode<K, V> node = mapNode(getRBTNode(key));
+        return node == null ? null : node.value;
+    }
+
+    public boolean containsKey(K key) {
+        return getRBTNode(key) != null;
+    }
+
+    /**
+     * 放入key-value，key存在时原地覆盖value
+     *
+     * @param key   key
+     * @param value value
+     * @return 原来的value
+     */
+    public V put(K key, V value) {
+        if (key == null) {
+            return null;// 和RBTree一样，空key不处理
+        }
+        Position<K> pos = descend(key);
+        MapNode<K, V> node = mapNode(pos.node);
+        if (node != null) {
+            V old = node.value;
+            node.value = value;
+            return old;
+        }
+        insert(pos, key, value);
+        return null;
+    }
+
+    /**
+     * 删除key
+     *
+     * @param key key
+     * @return 被删除的value
+     */
+    public V remove(K key) {
+        MapNode<K, V> node = mapNode(getRBTNode(key));
+        if (node == null) {
+            return null;
+        }
+        V old = node.value;
+        deleteNode(node);
+        return old;
+    }
+
+    /**
+     * 和Map.compute语义一样：新value为null时删除key
+     * <p>
+     * 回调里不能增删这个map的key，查找时记下的节点和挂载位置会失效，检查到了抛ConcurrentModificationException
+     *
+     * @param key               key
+     * @param remappingFunction (key, 旧value) -> 新value，旧value不存在时传null
+     * @return 新value
+     * @throws ConcurrentModificationException 回调里增删了key
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (key == null) {
+            return null;
+        }
+        Position<K> pos = descend(key);
+        MapNode<K, V> node = mapNode(pos.node);
+        int expectedModCount = modCount;
+        V value = remappingFunction.apply(key, node == null ? null : node.value);
+        checkModCount(expectedModCount);
+        if (node != null) {
+            return update(node, value);
+        }
+        if (value != null) {
+            insert(pos, key, value);
+        }
+        return value;
+    }
+
+    /**
+     * 和Map.computeIfAbsent语义一样
+     * <p>
+     * 回调里不能增删这个map的key，查找时记下的挂载位置会失效，检查到了抛ConcurrentModificationException
+     *
+     * @param key             key
+     * @param mappingFunction key -> value
+     * @return key对应的value
+     * @throws ConcurrentModificationException 回调里增删了key
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (key == null) {
+            return null;
+        }
+        Position<K> pos = descend(key);
+        MapNode<K, V> node = mapNode(pos.node);
+        if (node != null && node.value != null) {
+            return node.value;
+        }
+        int expectedModCount = modCount;
+        V value = mappingFunction.apply(key);
+        checkModCount(expectedModCount);
+        if (value != null) {
+            if (node != null) {
+                node.value = value;
+            } else {
+                insert(pos, key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 和Map.merge语义一样：key不存在时放入value，存在时用合并结果覆盖，合并结果为null时删除key
+     * <p>
+     * 回调里不能增删这个map的key，查找到的节点会失效，检查到了抛ConcurrentModificationException
+     *
+     * @param key               key
+     * @param value             要合并的value
+     * @param remappingFunction (旧value, value) -> 新value
+     * @return 新value
+     * @throws ConcurrentModificationException 回调里增删了key
+     */
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (key == null) {
+            return null;
+        }
+        Position<K> pos = descend(key);
+        MapNode<K, V> node = mapNode(pos.node);
+        if (node == null) {
+            insert(pos, key, value);
+            return value;
+        }
+        if (node.value == null) {
+            node.value = value;
+            return value;
+        }
+        int expectedModCount = modCount;
+        V newValue = remappingFunction.apply(node.value, value);
+        checkModCount(expectedModCount);
+        return update(node, newValue);
+    }
+
+    private V update(MapNode<K, V> node, V value) {
+        if (value == null) {
+            deleteNode(node);// 直接删节点，不需要再查找一次
+        } else {
+            node.value = value;
+        }
+        return value;
+    }
+
+    /**
+     * 从根往下找key，找到了返回节点，找不到时返回挂载位置，insert直接用
+     */
+    private Position<K> descend(K key) {
+        Position<K> pos = new Position<>();
+        RBTreeNode<K> node = root;
+        while (node != null) {
+            pos.parent = node;
+            pos.cmp = key.compareTo(node.key);
+            if (pos.cmp < 0) {
+                node = node.left;
+            } else if (pos.cmp > 0) {
+                node = node.right;
+            } else {
+                pos.node = node;
+                return pos;
+            }
+        }
+        return pos;
+    }
+
+    private void checkModCount(int expectedModCount) {
+        if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * 挂到descend返回的位置上，查找之后树不能被增删过，否则位置就失效了
+     */
+    private void insert(Position<K> pos, K key, V value) {
+        MapNode<K, V> node = new MapNode<>(key, pos.parent);
+        node.value = value;
+        attachNode(pos.parent, pos.cmp, node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private MapNode<K, V> mapNode(RBTreeNode<K> node) {
+        return (MapNode<K, V>) node;
+    }
+}
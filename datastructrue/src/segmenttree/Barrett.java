@@ -0,0 +1,93 @@
+package segmenttree;
+
+/**
+ * 模数固定时用乘法代替除法的取模(Barrett约减)
+ * <p>
+ * mod有b位时，预先算好 m = floor(2^(2b) / mod)，对 x &lt; 2^(2b) 估计商 q = ((x &gt;&gt;&gt; (b-1)) * m) &gt;&gt;&gt; (b+1)，
+ * 估计值最多比真实的商小2，x - q * mod 再减最多两次mod就是余数。
+ * mod &lt; 2^31 时中间的乘积不超过2^64，用long的无符号右移就行，不需要Math.multiplyHigh(Java8没有)。
+ * 两次乘法加移位，比64位除法快，在模数不是编译期常量时(JIT没法自己把%换成乘法)差别最明显。
+ * <p>
+ * 两个小于mod的数相加不超过2mod，直接比较后减一次就行，不用取模
+ */
+public final class Barrett {
+
+    private final long mod;
+
+    private final long m;
+    private final int shift1;
+    private final int shift2;
+
+    // reduce能处理的上界2^(2b)，超过了退化成%
+    private final long limit;
+
+    /**
+     * @param mod 模数，在(1, 2^31)中
+     */
+    public Barrett(int mod) {
+        if (mod <= 1) {
+            throw new IllegalArgumentException("mod must be greater than 1: " + mod);
+        }
+        this.mod = mod;
+        int bits = 32 - Integer.numberOfLeadingZeros(mod);
+        this.shift1 = bits - 1;
+        this.shift2 = bits + 1;
+        this.limit = 1L << (2 * bits);
+        this.m = limit / mod;
+    }
+
+    public long mod() {
+        return mod;
+    }
+
+    /**
+     * x mod m
+     *
+     * @param x 0 &lt;= x &lt; 2^(2b)，两个小于mod的数的乘积再加上一个小于mod的数在范围内
+     * @return [0, mod)中的余数
+     */
+    public long reduce(long x) {
+        long q = ((x >>> shift1) * m) >>> shift2;
+        long r = x - q * mod;
+        if (r >= mod) {
+            r -= mod;
+        }
+        if (r >= mod) {
+            r -= mod;
+        }
+        return r;
+    }
+
+    /**
+     * 任意非负long取模，在reduce的范围内走快速路径
+     */
+    public long reduceAny(long x) {
+        return x < limit ? reduce(x) : x % mod;
+    }
+
+    /**
+     * 把x当成无符号数取模，用来处理超过long范围的区间长度
+     */
+    public long reduceUnsigned(long x) {
+        if (x >= 0) {
+            return reduceAny(x);
+        }
+        return Long.remainderUnsigned(x, mod);
+    }
+
+    // a、b都在[0, mod)中
+    public long mul(long a, long b) {
+        return reduce(a * b);
+    }
+
+    // a、b都在[0, mod)中
+    public long add(long a, long b) {
+        long s = a + b;
+        return s >= mod ? s - mod : s;
+    }
+
+    // a * b + c，a、b、c都在[0, mod)中，只约减一次
+    public long mulAdd(long a, long b, long c) {
+        return reduce(a * b + c);
+    }
+}
@@ -0,0 +1,434 @@
+package segmenttree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 节点放在堆外内存里的动态开点线段树，区间加、区间乘、区间求和，结果对mod取模，语义和SegTree一样
+ * <p>
+ * 每个节点32字节：val、lazyAdd、lazyMul各8字节，左右孩子的编号各4字节，编号0是根，孩子编号为0表示还没建。
+ * 节点按编号连续放在一块块堆外的ByteBuffer里，每块CHUNK_NODES个节点，不够了再加一块；
+ * 节点的区间不存，递归的时候算出来。这样整棵树对GC来说只有几个ByteBuffer对象，不会因为节点多触发full GC，也不受堆大小限制。
+ * <p>
+ * 用open打开的树放在文件里，节点区映射到内存，节点个数只在close或者flush时写回文件头。
+ * 只有close过的文件才能再open接着用：open时在头里记下"正在使用"，close时才清掉，
+ * 进程中途崩溃的文件再open会抛IOException，而不是按旧的节点个数把已经被引用的节点当成空位重新分配。
+ * 用完要close，堆外内存不等GC，立即释放。
+ * 取模和SegTree一样用Barrett约减
+ */
+public class OffHeapSegTree implements Closeable {
+
+    private static final int NODE_BYTES = 32;
+
+    private static final int VAL = 0;
+    private static final int LAZY_ADD = 8;
+    private static final int LAZY_MUL = 16;
+    private static final int LEFT = 24;
+    private static final int RIGHT = 28;
+
+    // 每块65536个节点，2MB
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_NODES - 1;
+    private static final long CHUNK_BYTES = (long) CHUNK_NODES * NODE_BYTES;
+
+    // 文件头：magic、version、mod、left、right、节点个数、状态，节点区从HEADER_BYTES开始
+    private static final int MAGIC = 0x53454754;
+    private static final int VERSION = 2;
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_OPEN = 1;
+    private static final int HEADER_BYTES = 64;
+
+    private static final int DEFAULT_MOD = (int) (1e9 + 7);
+
+    private final long left;
+    private final long right;
+
+    private final int mod;
+
+    private final Barrett barrett;
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+
+    private int nodeCount;
+
+    // 文件映射时不为null
+    private final FileChannel channel;
+
+    private boolean closed;
+
+    public OffHeapSegTree(long left, long right) {
+        this(left, right, DEFAULT_MOD);
+    }
+
+    public OffHeapSegTree(long left, long right, int mod) {
+        this(left, right, mod, null);
+        allocate();
+    }
+
+    private OffHeapSegTree(long left, long right, int mod, FileChannel channel) {
+        if (left > right) {
+            throw new IllegalArgumentException("left > right: " + left + ", " + right);
+        }
+        if (mod <= 1) {
+            throw new IllegalArgumentException("mod must be greater than 1: " + mod);
+        }
+        this.left = left;
+        this.right = right;
+        this.mod = mod;
+        this.barrett = new Barrett(mod);
+        this.channel = channel;
+    }
+
+    /**
+     * 打开文件里的树，文件不存在或者为空时新建
+     *
+     * @param file  文件
+     * @param left  区间左端点
+     * @param right 区间右端点
+     * @param mod   模数
+     * @return 树
+     * @throws IOException 文件不是这种格式，区间、模数和文件里的不一样，或者文件上次没有close
+     */
+    public static OffHeapSegTree open(Path file, long left, long right, int mod) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            OffHeapSegTree tree = new OffHeapSegTree(left, right, mod, channel);
+            if (channel.size() == 0) {
+                tree.allocate();
+                tree.writeHeader(STATE_OPEN);
+                channel.force(false);
+                return tree;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+            // magic、version、mod、填充、left、right、节点个数、状态，共40字节
+            if (header.remaining() < 40 || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a segment tree file: " + file);
+            }
+            int fileMod = header.getInt();
+            header.getInt();
+            long fileLeft = header.getLong();
+            long fileRight = header.getLong();
+            int fileNodes = header.getInt();
+            int state = header.getInt();
+            if (fileMod != mod || fileLeft != left || fileRight != right) {
+                throw new IOException("segment tree file was created with range [" + fileLeft + ", " + fileRight
+                        + "] and mod " + fileMod);
+            }
+            if (state != STATE_CLEAN) {
+                throw new IOException("segment tree file was not closed cleanly: " + file);
+            }
+            int chunksNeeded = (int) (((long) fileNodes + CHUNK_NODES - 1) >>> CHUNK_SHIFT);
+            // 至少有根节点，节点区也要真的在文件里，否则会映射出全0的节点(LAZY_MUL为0)
+            if (fileNodes <= 0 || HEADER_BYTES + chunksNeeded * CHUNK_BYTES > channel.size()) {
+                throw new IOException("corrupted segment tree file, node count " + fileNodes
+                        + " does not fit file size " + channel.size());
+            }
+            for (int i = 0; i < chunksNeeded; i++) {
+                tree.addChunk();
+            }
+            tree.nodeCount = fileNodes;
+            tree.writeHeader(STATE_OPEN);
+            channel.force(false);
+            return tree;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static OffHeapSegTree open(Path file, long left, long right) throws IOException {
+        return open(file, left, right, DEFAULT_MOD);
+    }
+
+    // 已经建出来的节点个数
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    //--节点读写
+
+    private ByteBuffer chunk(int node) {
+        return chunks[node >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int node) {
+        return (node & CHUNK_MASK) * NODE_BYTES;
+    }
+
+    private long getLong(int node, int field) {
+        return chunk(node).getLong(offset(node) + field);
+    }
+
+    private void putLong(int node, int field, long v) {
+        chunk(node).putLong(offset(node) + field, v);
+    }
+
+    private int getInt(int node, int field) {
+        return chunk(node).getInt(offset(node) + field);
+    }
+
+    private void putInt(int node, int field, int v) {
+        chunk(node).putInt(offset(node) + field, v);
+    }
+
+    private void addChunk() throws IOException {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        ByteBuffer buffer;
+        if (channel == null) {
+            buffer = ByteBuffer.allocateDirect((int) CHUNK_BYTES);
+        } else {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + chunkCount * CHUNK_BYTES, CHUNK_BYTES);
+        }
+        chunks[chunkCount++] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int allocate() {
+        if (nodeCount == Integer.MAX_VALUE) {
+            throw new IllegalStateException("too many nodes");
+        }
+        if (nodeCount == chunkCount << CHUNK_SHIFT) {
+            try {
+                addChunk();
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to grow segment tree file", e);
+            }
+        }
+        int node = nodeCount++;
+        putLong(node, VAL, 0L);
+        putLong(node, LAZY_ADD, 0L);
+        putLong(node, LAZY_MUL, 1L);
+        putInt(node, LEFT, 0);
+        putInt(node, RIGHT, 0);
+        return node;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("segment tree is closed");
+        }
+    }
+
+    // 区间[l, r]的长度对mod取模，整个long范围的长度是2^64，减法会溢出，按无符号数算
+    private long lengthMod(long l, long r) {
+        long len = r - l + 1;
+        if (len == 0L) {
+            return barrett.add(barrett.reduceUnsigned(-1L), 1L);
+        }
+        return barrett.reduceUnsigned(len);
+    }
+
+    // r - l在整个long范围时会溢出，当成无符号数右移
+    private static long mid(long l, long r) {
+        return l + ((r - l) >>> 1);
+    }
+
+    //--操作
+
+    public long query(long left, long right) {
+        checkOpen();
+        return query(0, this.left, this.right, left, right);
+    }
+
+    private long query(int node, long l, long r, long left, long right) {
+        if (right < l || left > r) {
+            return 0L;
+        }
+        if (left <= l && r <= right) {
+            return getLong(node, VAL);
+        }
+        pushDown(node, l, r);
+        long mid = mid(l, r);
+        return barrett.add(query(getInt(node, LEFT), l, mid, left, right),
+                query(getInt(node, RIGHT), mid + 1, r, left, right));
+    }
+
+    public void add(long left, long right, long val) {
+        checkOpen();
+        add(0, this.left, this.right, left, right, Math.floorMod(val, mod));
+    }
+
+    private void add(int node, long l, long r, long left, long right, long val) {
+        if (right < l || left > r) {
+            return;
+        }
+        if (left <= l && r <= right) {
+            applyAdd(node, l, r, val);
+            return;
+        }
+        pushDown(node, l, r);
+        long mid = mid(l, r);
+        add(getInt(node, LEFT), l, mid, left, right, val);
+        add(getInt(node, RIGHT), mid + 1, r, left, right, val);
+        pushUp(node);
+    }
+
+    public void mul(long left, long right, long val) {
+        checkOpen();
+        mul(0, this.left, this.right, left, right, Math.floorMod(val, mod));
+    }
+
+    private void mul(int node, long l, long r, long left, long right, long val) {
+        if (right < l || left > r) {
+            return;
+        }
+        if (left <= l && r <= right) {
+            applyMul(node, val);
+            return;
+        }
+        pushDown(node, l, r);
+        long mid = mid(l, r);
+        mul(getInt(node, LEFT), l, mid, left, right, val);
+        mul(getInt(node, RIGHT), mid + 1, r, left, right, val);
+        pushUp(node);
+    }
+
+    private void applyAdd(int node, long l, long r, long val) {
+        putLong(node, VAL, barrett.mulAdd(lengthMod(l, r), val, getLong(node, VAL)));
+        putLong(node, LAZY_ADD, barrett.add(getLong(node, LAZY_ADD), val));
+    }
+
+    private void applyMul(int node, long val) {
+        putLong(node, VAL, barrett.mul(getLong(node, VAL), val));
+        putLong(node, LAZY_MUL, barrett.mul(getLong(node, LAZY_MUL), val));
+        putLong(node, LAZY_ADD, barrett.mul(getLong(node, LAZY_ADD), val));
+    }
+
+    private void pushUp(int node) {
+        putLong(node, VAL, barrett.add(getLong(getInt(node, LEFT), VAL), getLong(getInt(node, RIGHT), VAL)));
+    }
+
+    /**
+     * 把懒标记推给孩子，孩子没建就先建出来，这样标记不会丢
+     */
+    private void pushDown(int node, long l, long r) {
+        if (getInt(node, LEFT) == 0) {
+            // allocate可能加新块，先拿到编号再写回
+            int leftChild = allocate();
+            putInt(node, LEFT, leftChild);
+            int rightChild = allocate();
+            putInt(node, RIGHT, rightChild);
+        }
+        int leftChild = getInt(node, LEFT);
+        int rightChild = getInt(node, RIGHT);
+        long mul = getLong(node, LAZY_MUL);
+        if (mul != 1L) {
+            applyMul(leftChild, mul);
+            applyMul(rightChild, mul);
+            putLong(node, LAZY_MUL, 1L);
+        }
+        long add = getLong(node, LAZY_ADD);
+        if (add != 0L) {
+            long mid = mid(l, r);
+            applyAdd(leftChild, l, mid, add);
+            applyAdd(rightChild, mid + 1, r, add);
+            putLong(node, LAZY_ADD, 0L);
+        }
+    }
+
+    //--持久化和释放
+
+    private void writeHeader(int state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(mod);
+        header.putInt(0);
+        header.putLong(left);
+        header.putLong(right);
+        header.putInt(nodeCount);
+        header.putInt(state);
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    /**
+     * 文件映射的树把修改刷到磁盘，内存里的树什么也不做。文件仍然标记为正在使用，要close之后才能再open
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        if (channel == null) {
+            return;
+        }
+        force(STATE_OPEN);
+    }
+
+    // 先刷节点区再写头，头里的节点个数不会超前于已经落盘的节点
+    private void force(int state) throws IOException {
+        for (int i = 0; i < chunkCount; i++) {
+            ((MappedByteBuffer) chunks[i]).force();
+        }
+        writeHeader(state);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                try {
+                    force(STATE_CLEAN);
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            closed = true;
+            for (int i = 0; i < chunkCount; i++) {
+                release(chunks[i]);
+                chunks[i] = null;
+            }
+            chunkCount = 0;
+        }
+    }
+
+    /**
+     * 尽力立即释放堆外内存或解除映射，JDK9以后用Unsafe.invokeCleaner，JDK8用DirectBuffer.cleaner，都失败就留给GC
+     */
+    private static void release(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK8没有invokeCleaner
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 释放不了就等GC
+        }
+    }
+}
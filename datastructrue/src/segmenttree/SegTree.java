@@ -1,13 +1,30 @@
 package segmenttree;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 /**
  * 线段树板子
+ * <p>
+ * 动态开点，区间加、区间乘、区间求和，结果对mod取模。mod可以在构造时指定，默认1e9+7；
+ * 取模用预先算好的Barrett约减代替除法，两个余数相加只比较减一次，乘加合在一起只约减一次
  */
 public class SegTree {
 
+    private static final int DEFAULT_MOD = (int) (1e9 + 7);
+
+    // 从数组建树时，区间长度小于这个就不再fork
+    private static final int BUILD_THRESHOLD = 1 << 13;
+
     private TreeNode root;
 
-    private int mod = (int) (1e9 + 7);
+    private final Barrett barrett;
+
+    private final long mod;
+
+    // 新建节点的初始值，perPoint为true时是每个点的值，节点的和要乘上区间长度；为false时就是节点的和
+    private final long init;
+    private final boolean perPoint;
 
     private static class TreeNode {
         long val;
@@ -33,35 +50,145 @@ public class SegTree {
             this.lazyMul = 1L;
         }
 
+        // right - left在整个long范围时会溢出，当成无符号数右移
         private long getMid() {
-            return left + (right - left >> 1);
+            return left + ((right - left) >>> 1);
         }
+    }
 
-        private TreeNode getLeftNode() {
-            if (leftNode == null) {
-                leftNode = new TreeNode(left, getMid(),val);
-            }
-            return leftNode;
+    public SegTree() {
+        this(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public SegTree(long left, long right) {
+        this(left, right, 0L);
+    }
+
+    /**
+     * @param val 每个新建节点的初始值，是节点上的和，和区间长度无关；要每个点都是val用filled
+     */
+    public SegTree(long left, long right, long val) {
+        this(left, right, val, DEFAULT_MOD);
+    }
+
+    /**
+     * @param val 每个新建节点的初始值，是节点上的和，和区间长度无关；要每个点都是val用filled
+     * @param mod 模数，在(1, 2^31)中
+     */
+    public SegTree(long left, long right, long val, int mod) {
+        this(left, right, val, mod, false);
+    }
+
+    private SegTree(long left, long right, long val, int mod, boolean perPoint) {
+        this.barrett = new Barrett(mod);
+        this.mod = mod;
+        this.init = Math.floorMod(val, this.mod);
+        this.perPoint = perPoint;
+        root = new TreeNode(left, right, initialSum(left, right));
+    }
+
+    /**
+     * [left, right]中每个点的初始值都是val，区间和是长度乘val
+     */
+    public static SegTree filled(long left, long right, long val) {
+        return filled(left, right, val, DEFAULT_MOD);
+    }
+
+    /**
+     * [left, right]中每个点的初始值都是val，区间和是长度乘val
+     *
+     * @param mod 模数，在(1, 2^31)中
+     */
+    public static SegTree filled(long left, long right, long val, int mod) {
+        return new SegTree(left, right, val, mod, true);
+    }
+
+    /**
+     * 用数组建树，覆盖[0, values.length - 1]，在commonPool中并行建
+     */
+    public SegTree(long[] values) {
+        this(values, DEFAULT_MOD);
+    }
+
+    public SegTree(long[] values, int mod) {
+        this(values, mod, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 用数组建树，覆盖[0, values.length - 1]
+     * <p>
+     * 自底向上一次建出所有2n - 1个节点，O(n)，不用调n次add。
+     * 左右子树互不相干，长区间fork成两个子任务，短区间直接递归
+     *
+     * @param values 每个点的值，不会被修改
+     * @param mod    模数，在(1, 2^31)中
+     * @param pool   执行的线程池
+     */
+    public SegTree(long[] values, int mod, ForkJoinPool pool) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("empty array");
         }
+        this.barrett = new Barrett(mod);
+        this.mod = mod;
+        this.init = 0L;
+        this.perPoint = false;
+        root = pool.invoke(new BuildTask(values, 0, values.length - 1));
+    }
+
+    private final class BuildTask extends RecursiveTask<TreeNode> {
+        private static final long serialVersionUID = 1L;
 
-        private TreeNode getRightNode() {
-            if (rightNode == null) {
-                rightNode = new TreeNode(getMid() + 1, right,val);
+        private final long[] values;
+        private final int left;
+        private final int right;
+
+        BuildTask(long[] values, int left, int right) {
+            this.values = values;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        protected TreeNode compute() {
+            if (right - left < BUILD_THRESHOLD) {
+                return build(values, left, right);
             }
-            return rightNode;
+            TreeNode node = new TreeNode(left, right);
+            int mid = (int) node.getMid();
+            BuildTask leftTask = new BuildTask(values, left, mid);
+            leftTask.fork();
+            node.rightNode = new BuildTask(values, mid + 1, right).compute();
+            node.leftNode = leftTask.join();
+            pushUp(node);
+            return node;
         }
     }
 
-    public SegTree() {
-        root = new TreeNode(Long.MIN_VALUE, Long.MAX_VALUE);
+    private TreeNode build(long[] values, int left, int right) {
+        TreeNode node = new TreeNode(left, right);
+        if (left == right) {
+            node.val = Math.floorMod(values[left], mod);
+            return node;
+        }
+        int mid = (int) node.getMid();
+        node.leftNode = build(values, left, mid);
+        node.rightNode = build(values, mid + 1, right);
+        pushUp(node);
+        return node;
     }
 
-    public SegTree(long left, long right) {
-        root = new TreeNode(left, right);
+    // 新建的[left, right]节点上的和
+    private long initialSum(long left, long right) {
+        return perPoint ? barrett.mul(lengthMod(left, right), init) : init;
     }
 
-    public SegTree(long left, long right, long val) {
-        root = new TreeNode(left, right, val);
+    // 区间长度对mod取模，整个long范围的长度是2^64，按无符号数算
+    private long lengthMod(long left, long right) {
+        long len = right - left + 1;
+        if (len == 0L) {
+            return barrett.add(barrett.reduceUnsigned(-1L), 1L);
+        }
+        return barrett.reduceUnsigned(len);
     }
 
     public long query(long left,long right) {
@@ -77,11 +204,11 @@ public class SegTree {
         }
         // 更新子树
         pushDown(node);
-        return (query(node.getLeftNode(),left,right) + query(node.getRightNode(),left,right)) % mod;
+        return barrett.add(query(node.leftNode,left,right), query(node.rightNode,left,right));
     }
 
     public void add(long left,long right,long val) {
-        add(root,left,right,val);
+        add(root,left,right,Math.floorMod(val, mod));
     }
 
     private void add(TreeNode node,long left,long right,long val) {
@@ -89,10 +216,7 @@ public class SegTree {
             return;
         }
         if(left <= node.left && node.right <= right) {
-            node.val += (node.right - node.left + 1) * val;
-            node.val %= mod;
-            node.lazyAdd += val;
-            node.lazyAdd %= mod;
+            applyAdd(node, val);
             return;
         }
 
@@ -101,18 +225,18 @@ public class SegTree {
 
         long mid = node.getMid();
         if(right <= mid) {
-            add(node.getLeftNode(),left,right,val);
+            add(node.leftNode,left,right,val);
         } else if(left > mid) {
-            add(node.getRightNode(),left,right,val);
+            add(node.rightNode,left,right,val);
         } else {
-            add(node.getLeftNode(),left,mid,val);
-            add(node.getRightNode(),mid + 1,right,val);
+            add(node.leftNode,left,mid,val);
+            add(node.rightNode,mid + 1,right,val);
         }
         pushUp(node);
     }
 
     public void mul(long left,long right,long val) {
-        mul(root,left,right,val);
+        mul(root,left,right,Math.floorMod(val, mod));
     }
 
     private void mul(TreeNode node,long left,long right,long val) {
@@ -120,12 +244,7 @@ public class SegTree {
             return;
         }
         if(left <= node.left && node.right <= right) {
-            node.val *= val;
-            node.val %= mod;
-            node.lazyMul *= val;
-            node.lazyMul %= mod;
-            node.lazyAdd *= val;
-            node.lazyAdd %= mod;
+            applyMul(node, val);
             return;
         }
 
@@ -133,49 +252,49 @@ public class SegTree {
         pushDown(node);
         long mid = node.getMid();
         if(right <= mid) {
-            mul(node.getLeftNode(),left,right,val);
+            mul(node.leftNode,left,right,val);
         } else if(left > mid) {
-            mul(node.getRightNode(),left,right,val);
+            mul(node.rightNode,left,right,val);
         } else {
-            mul(node.getLeftNode(),left,mid,val);
-            mul(node.getRightNode(),mid + 1,right,val);
+            mul(node.leftNode,left,mid,val);
+            mul(node.rightNode,mid + 1,right,val);
         }
         pushUp(node);
     }
 
-    private void pushUp(TreeNode node) {
-        node.val = (node.getLeftNode().val + node.getRightNode().val) % mod;
+    // 乘加合在一起：val + len * v 不超过2^63，只约减一次
+    private void applyAdd(TreeNode node, long val) {
+        node.val = barrett.mulAdd(lengthMod(node.left, node.right), val, node.val);
+        node.lazyAdd = barrett.add(node.lazyAdd, val);
     }
 
+    private void applyMul(TreeNode node, long val) {
+        node.val = barrett.mul(node.val, val);
+        node.lazyMul = barrett.mul(node.lazyMul, val);
+        node.lazyAdd = barrett.mul(node.lazyAdd, val);
+    }
+
+    private void pushUp(TreeNode node) {
+        node.val = barrett.add(node.leftNode.val, node.rightNode.val);
+    }
 
+    /**
+     * 把懒标记推给孩子，孩子没建就先按初始值建出来，这样标记不会丢
+     */
     private void pushDown(TreeNode node) {
+        if(node.leftNode == null) {
+            long mid = node.getMid();
+            node.leftNode = new TreeNode(node.left, mid, initialSum(node.left, mid));
+            node.rightNode = new TreeNode(mid + 1, node.right, initialSum(mid + 1, node.right));
+        }
         if(node.lazyMul != 1L) {
-            if(node.leftNode != null) {
-                node.leftNode.val = (node.leftNode.val * node.lazyMul) % mod;
-                node.leftNode.lazyMul = (node.leftNode.lazyMul * node.lazyMul) % mod;
-                node.leftNode.lazyAdd = (node.leftNode.lazyAdd * node.lazyMul) % mod;
-
-            }
-            if(node.rightNode != null) {
-                node.rightNode.val = (node.rightNode.val * node.lazyMul) % mod;
-                node.rightNode.lazyMul = (node.rightNode.lazyMul * node.lazyMul) % mod;
-                node.rightNode.lazyAdd = (node.rightNode.lazyAdd * node.lazyMul) % mod;
-            }
+            applyMul(node.leftNode, node.lazyMul);
+            applyMul(node.rightNode, node.lazyMul);
             node.lazyMul = 1L;
         }
         if(node.lazyAdd != 0L) {
-            if(node.leftNode != null) {
-                node.leftNode.val += (node.leftNode.right - node.leftNode.left + 1) * node.lazyAdd;
-                node.leftNode.val %= mod;
-                node.leftNode.lazyAdd += node.lazyAdd;
-                node.leftNode.lazyAdd %= mod;
-            }
-            if(node.rightNode != null) {
-                node.rightNode.val += (node.rightNode.right - node.rightNode.left + 1) * node.lazyAdd;
-                node.rightNode.val %= mod;
-                node.rightNode.lazyAdd += node.lazyAdd;
-                node.rightNode.lazyAdd %= mod;
-            }
+            applyAdd(node.leftNode, node.lazyAdd);
+            applyAdd(node.rightNode, node.lazyAdd);
             node.lazyAdd = 0L;
         }
     }
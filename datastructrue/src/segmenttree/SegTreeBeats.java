@@ -0,0 +1,284 @@
+package segmenttree;
+
+/**
+ * 吉司机线段树(Segment Tree Beats)：区间chmin、chmax、加，区间求和、最大值、最小值
+ * <p>
+ * 节点按堆的方式编号存在数组里，根是1，x的孩子是2x和2x+1。
+ * 每个节点除了和，还记最大值、严格次大值、最大值的个数，最小值那边同样三个。
+ * chmin(x)时，如果x比最大值小但比次大值大，只有最大值会变，直接用个数改和，打标记返回；
+ * 否则继续往下递归。每次往下递归都会让某个节点的不同值个数变少，均摊下来有区间加时O(log² n)。
+ * <p>
+ * 下标从0开始，区间都是闭区间
+ */
+public class SegTreeBeats {
+
+    private static final long NONE_MAX = Long.MIN_VALUE;// 没有次大值
+    private static final long NONE_MIN = Long.MAX_VALUE;// 没有次小值
+
+    private final int n;
+
+    private final long[] sum;
+    private final long[] max1;
+    private final long[] max2;
+    private final long[] maxCnt;
+    private final long[] min1;
+    private final long[] min2;
+    private final long[] minCnt;
+    private final long[] lazyAdd;
+
+    public SegTreeBeats(int n) {
+        this(new long[n]);
+    }
+
+    public SegTreeBeats(long[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("empty array");
+        }
+        this.n = values.length;
+        int capacity = 4 * n;
+        sum = new long[capacity];
+        max1 = new long[capacity];
+        max2 = new long[capacity];
+        maxCnt = new long[capacity];
+        min1 = new long[capacity];
+        min2 = new long[capacity];
+        minCnt = new long[capacity];
+        lazyAdd = new long[capacity];
+        build(1, 0, n - 1, values);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    private void build(int x, int l, int r, long[] values) {
+        if (l == r) {
+            sum[x] = max1[x] = min1[x] = values[l];
+            max2[x] = NONE_MAX;
+            min2[x] = NONE_MIN;
+            maxCnt[x] = minCnt[x] = 1;
+            return;
+        }
+        int mid = (l + r) >>> 1;
+        build(2 * x, l, mid, values);
+        build(2 * x + 1, mid + 1, r, values);
+        pushUp(x);
+    }
+
+    private void pushUp(int x) {
+        int lc = 2 * x, rc = 2 * x + 1;
+        sum[x] = sum[lc] + sum[rc];
+        if (max1[lc] == max1[rc]) {
+            max1[x] = max1[lc];
+            max2[x] = Math.max(max2[lc], max2[rc]);
+            maxCnt[x] = maxCnt[lc] + maxCnt[rc];
+        } else if (max1[lc] > max1[rc]) {
+            max1[x] = max1[lc];
+            max2[x] = Math.max(max2[lc], max1[rc]);
+            maxCnt[x] = maxCnt[lc];
+        } else {
+            max1[x] = max1[rc];
+            max2[x] = Math.max(max1[lc], max2[rc]);
+            maxCnt[x] = maxCnt[rc];
+        }
+        if (min1[lc] == min1[rc]) {
+            min1[x] = min1[lc];
+            min2[x] = Math.min(min2[lc], min2[rc]);
+            minCnt[x] = minCnt[lc] + minCnt[rc];
+        } else if (min1[lc] < min1[rc]) {
+            min1[x] = min1[lc];
+            min2[x] = Math.min(min2[lc], min1[rc]);
+            minCnt[x] = minCnt[lc];
+        } else {
+            min1[x] = min1[rc];
+            min2[x] = Math.min(min1[lc], min2[rc]);
+            minCnt[x] = minCnt[rc];
+        }
+    }
+
+    private void applyAdd(int x, int len, long v) {
+        sum[x] += v * len;
+        max1[x] += v;
+        if (max2[x] != NONE_MAX) {
+            max2[x] += v;
+        }
+        min1[x] += v;
+        if (min2[x] != NONE_MIN) {
+            min2[x] += v;
+        }
+        lazyAdd[x] += v;
+    }
+
+    // 调用前保证 max2 < v < max1，只有最大值变成v
+    private void applyChmin(int x, long v) {
+        sum[x] -= (max1[x] - v) * maxCnt[x];
+        if (min1[x] == max1[x]) {
+            min1[x] = v;// 只有一种值
+        } else if (min2[x] == max1[x]) {
+            min2[x] = v;// 只有两种值，最大值也是次小值
+        }
+        max1[x] = v;
+    }
+
+    // 调用前保证 min1 < v < min2，只有最小值变成v
+    private void applyChmax(int x, long v) {
+        sum[x] += (v - min1[x]) * minCnt[x];
+        if (max1[x] == min1[x]) {
+            max1[x] = v;
+        } else if (max2[x] == min1[x]) {
+            max2[x] = v;
+        }
+        min1[x] = v;
+    }
+
+    /**
+     * 先下推加法标记，再用自己的最大值、最小值去裁剪孩子，孩子只可能是最大值超出或者最小值不足
+     */
+    private void pushDown(int x, int l, int r) {
+        int lc = 2 * x, rc = 2 * x + 1;
+        int mid = (l + r) >>> 1;
+        if (lazyAdd[x] != 0L) {
+            applyAdd(lc, mid - l + 1, lazyAdd[x]);
+            applyAdd(rc, r - mid, lazyAdd[x]);
+            lazyAdd[x] = 0L;
+        }
+        if (max1[lc] > max1[x]) {
+            applyChmin(lc, max1[x]);
+        }
+        if (max1[rc] > max1[x]) {
+            applyChmin(rc, max1[x]);
+        }
+        if (min1[lc] < min1[x]) {
+            applyChmax(lc, min1[x]);
+        }
+        if (min1[rc] < min1[x]) {
+            applyChmax(rc, min1[x]);
+        }
+    }
+
+    private void checkRange(int left, int right) {
+        if (left < 0 || right >= n || left > right) {
+            throw new IndexOutOfBoundsException("Range: [" + left + ", " + right + "], Size: " + n);
+        }
+    }
+
+    /**
+     * [left, right]中的每个数 a[i] = min(a[i], v)
+     */
+    public void chmin(int left, int right, long v) {
+        checkRange(left, right);
+        chmin(1, 0, n - 1, left, right, v);
+    }
+
+    private void chmin(int x, int l, int r, int left, int right, long v) {
+        if (right < l || r < left || max1[x] <= v) {
+            return;
+        }
+        if (left <= l && r <= right && max2[x] < v) {
+            applyChmin(x, v);
+            return;
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        chmin(2 * x, l, mid, left, right, v);
+        chmin(2 * x + 1, mid + 1, r, left, right, v);
+        pushUp(x);
+    }
+
+    /**
+     * [left, right]中的每个数 a[i] = max(a[i], v)
+     */
+    public void chmax(int left, int right, long v) {
+        checkRange(left, right);
+        chmax(1, 0, n - 1, left, right, v);
+    }
+
+    private void chmax(int x, int l, int r, int left, int right, long v) {
+        if (right < l || r < left || min1[x] >= v) {
+            return;
+        }
+        if (left <= l && r <= right && min2[x] > v) {
+            applyChmax(x, v);
+            return;
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        chmax(2 * x, l, mid, left, right, v);
+        chmax(2 * x + 1, mid + 1, r, left, right, v);
+        pushUp(x);
+    }
+
+    /**
+     * [left, right]中的每个数加v
+     */
+    public void add(int left, int right, long v) {
+        checkRange(left, right);
+        add(1, 0, n - 1, left, right, v);
+    }
+
+    private void add(int x, int l, int r, int left, int right, long v) {
+        if (right < l || r < left) {
+            return;
+        }
+        if (left <= l && r <= right) {
+            applyAdd(x, r - l + 1, v);
+            return;
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        add(2 * x, l, mid, left, right, v);
+        add(2 * x + 1, mid + 1, r, left, right, v);
+        pushUp(x);
+    }
+
+    public long querySum(int left, int right) {
+        checkRange(left, right);
+        return querySum(1, 0, n - 1, left, right);
+    }
+
+    private long querySum(int x, int l, int r, int left, int right) {
+        if (right < l || r < left) {
+            return 0L;
+        }
+        if (left <= l && r <= right) {
+            return sum[x];
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        return querySum(2 * x, l, mid, left, right) + querySum(2 * x + 1, mid + 1, r, left, right);
+    }
+
+    public long queryMax(int left, int right) {
+        checkRange(left, right);
+        return queryMax(1, 0, n - 1, left, right);
+    }
+
+    private long queryMax(int x, int l, int r, int left, int right) {
+        if (right < l || r < left) {
+            return Long.MIN_VALUE;
+        }
+        if (left <= l && r <= right) {
+            return max1[x];
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        return Math.max(queryMax(2 * x, l, mid, left, right), queryMax(2 * x + 1, mid + 1, r, left, right));
+    }
+
+    public long queryMin(int left, int right) {
+        checkRange(left, right);
+        return queryMin(1, 0, n - 1, left, right);
+    }
+
+    private long queryMin(int x, int l, int r, int left, int right) {
+        if (right < l || r < left) {
+            return Long.MAX_VALUE;
+        }
+        if (left <= l && r <= right) {
+            return min1[x];
+        }
+        pushDown(x, l, r);
+        int mid = (l + r) >>> 1;
+        return Math.min(queryMin(2 * x, l, mid, left, right), queryMin(2 * x + 1, mid + 1, r, left, right));
+    }
+}
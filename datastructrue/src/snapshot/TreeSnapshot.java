@@ -0,0 +1,357 @@
+package snapshot;
+
+import blancetree.AvlTree;
+import blancetree.LongTreap;
+import blancetree.Treap;
+import rbtree.LongRBTree;
+import rbtree.RBTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 平衡树的二进制快照，key为long
+ * <p>
+ * 文件格式(小端)：
+ * <pre>
+ * magic   int   'TSNP'
+ * version short
+ * keyType byte  目前只有KEY_LONG
+ * flags   byte  FLAG_COUNTS表示带个数列
+ * n       long  不同key的个数
+ * keys    n个long，严格递增
+ * counts  n个long，只有带FLAG_COUNTS时才有
+ * </pre>
+ * 按列存放，写的时候中序遍历一遍写key列，多重集合再遍历一遍写个数列；
+ * 读的时候按块mmap，整块批量拷贝到long[]，再走各个树O(n)的buildFromSorted，不需要比较和旋转。
+ * <p>
+ * 集合(RBTree、LongRBTree)读带个数列的文件时忽略个数；多重集合读不带个数列的文件时个数都是1
+ */
+public final class TreeSnapshot {
+
+    public static final int MAGIC = 0x54534E50;
+
+    public static final short VERSION = 1;
+
+    public static final byte KEY_LONG = 1;
+
+    public static final byte FLAG_COUNTS = 1;
+
+    private static final int HEADER_BYTES = 16;
+
+    // 写文件时的缓冲区大小
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    // 单次mmap的大小，MappedByteBuffer最多只能映射2GB，取8的倍数
+    private static final long MAP_CHUNK_BYTES = 1L << 30;
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * 快照文件的头
+     */
+    private static final class Header {
+        boolean hasCounts;
+        int n;
+    }
+
+    /**
+     * 带缓冲区的顺序写，缓冲区是堆外的，写channel时少一次拷贝
+     */
+    private static final class ColumnWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        ColumnWriter(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(HEADER_BYTES);
+        }
+
+        void put(long v) {
+            if (!buffer.hasRemaining()) {
+                flushUnchecked();
+            }
+            buffer.putLong(v);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // forEach的回调里不能抛受检异常，包一层，在外面再拆开
+        private void flushUnchecked() {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    //--写
+
+    public static void write(LongRBTree tree, Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            try {
+                tree.forEach(writer::put);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            writeHeader(channel, false, tree.size());
+        }
+    }
+
+    public static void write(RBTree<Long> tree, Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            try {
+                tree.forEach((Long key) -> writer.put(key));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            writeHeader(channel, false, tree.getSize());
+        }
+    }
+
+    public static void write(LongTreap tree, Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            int[] n = new int[1];
+            try {
+                tree.forEach((key, count) -> {
+                    writer.put(key);
+                    n[0]++;
+                });
+                tree.forEach((key, count) -> writer.put(count));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            writeHeader(channel, true, n[0]);
+        }
+    }
+
+    public static void write(Treap<Long> tree, Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            int[] n = new int[1];
+            try {
+                tree.forEach((key, count) -> {
+                    writer.put(key);
+                    n[0]++;
+                });
+                tree.forEach((key, count) -> writer.put(count));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            writeHeader(channel, true, n[0]);
+        }
+    }
+
+    public static void write(AvlTree<Long> tree, Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            int[] n = new int[1];
+            try {
+                tree.forEach((key, count) -> {
+                    writer.put(key);
+                    n[0]++;
+                });
+                tree.forEach((key, count) -> writer.put(count));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+            writeHeader(channel, true, n[0]);
+        }
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // 个数要遍历完才知道，所以头最后写
+    private static void writeHeader(FileChannel channel, boolean hasCounts, long n) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.put(KEY_LONG);
+        header.put(hasCounts ? FLAG_COUNTS : 0);
+        header.putLong(n);
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    //--读
+
+    public static LongRBTree readLongRBTree(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            long[] keys = readKeys(channel, header);
+            LongRBTree tree = new LongRBTree(header.n);
+            tree.buildFromSorted(keys, header.n);
+            return tree;
+        }
+    }
+
+    public static RBTree<Long> readRBTree(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            long[] keys = readKeys(channel, header);
+            RBTree<Long> tree = new RBTree<>();
+            tree.buildFromSorted(Arrays.stream(keys).iterator(), header.n);
+            return tree;
+        }
+    }
+
+    public static LongTreap readLongTreap(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            long[] keys = readKeys(channel, header);
+            int[] counts = header.hasCounts ? toIntCounts(readColumn(channel, countsOffset(header), header.n)) : null;
+            LongTreap tree = new LongTreap(header.n);
+            tree.buildFromSorted(keys, counts, header.n);
+            return tree;
+        }
+    }
+
+    public static Treap<Long> readTreap(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            Long[] keys = box(readKeys(channel, header));
+            int[] counts = header.hasCounts ? toIntCounts(readColumn(channel, countsOffset(header), header.n)) : null;
+            Treap<Long> tree = new Treap<>();
+            tree.buildFromSorted(keys, counts, header.n);
+            return tree;
+        }
+    }
+
+    public static AvlTree<Long> readAvlTree(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            Long[] keys = box(readKeys(channel, header));
+            long[] counts = header.hasCounts ? checkCounts(readColumn(channel, countsOffset(header), header.n)) : null;
+            AvlTree<Long> tree = new AvlTree<>();
+            tree.buildFromSorted(keys, counts, header.n);
+            return tree;
+        }
+    }
+
+    private static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 0;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new IOException("truncated snapshot header");
+            }
+            position += read;
+        }
+        buf.flip();
+        if (buf.getInt() != MAGIC) {
+            throw new IOException("not a tree snapshot");
+        }
+        short version = buf.getShort();
+        if (version != VERSION) {
+            throw new IOException("unsupported snapshot version: " + version);
+        }
+        byte keyType = buf.get();
+        if (keyType != KEY_LONG) {
+            throw new IOException("unsupported key type: " + keyType);
+        }
+        Header header = new Header();
+        header.hasCounts = (buf.get() & FLAG_COUNTS) != 0;
+        long n = buf.getLong();
+        if (n < 0 || n > Integer.MAX_VALUE - 8) {
+            throw new IOException("invalid key count: " + n);
+        }
+        header.n = (int) n;
+        long expected = HEADER_BYTES + (header.hasCounts ? 16L : 8L) * n;
+        if (channel.size() != expected) {
+            throw new IOException("snapshot size mismatch, expected " + expected + " bytes but was " + channel.size());
+        }
+        return header;
+    }
+
+    private static long countsOffset(Header header) {
+        return HEADER_BYTES + 8L * header.n;
+    }
+
+    /**
+     * 从offset开始读n个long，按块mmap，每块用LongBuffer批量拷贝
+     */
+    private static long[] readColumn(FileChannel channel, long offset, int n) throws IOException {
+        long[] res = new long[n];
+        int done = 0;
+        while (done < n) {
+            int len = (int) Math.min(n - done, MAP_CHUNK_BYTES >>> 3);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L * done, 8L * len);
+            LongBuffer longs = mapped.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            longs.get(res, done, len);
+            done += len;
+        }
+        return res;
+    }
+
+    /**
+     * 读key列，buildFromSorted不做比较，这里先检查严格递增，坏文件不会建出非法的树
+     */
+    private static long[] readKeys(FileChannel channel, Header header) throws IOException {
+        long[] keys = readColumn(channel, HEADER_BYTES, header.n);
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                throw new IOException("keys not strictly ascending at index " + i + ": " + keys[i - 1] + ", " + keys[i]);
+            }
+        }
+        return keys;
+    }
+
+    private static long[] checkCounts(long[] counts) throws IOException {
+        for (long count : counts) {
+            if (count <= 0) {
+                throw new IOException("non-positive count: " + count);
+            }
+        }
+        return counts;
+    }
+
+    private static int[] toIntCounts(long[] counts) throws IOException {
+        int[] res = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] <= 0 || counts[i] > Integer.MAX_VALUE) {
+                throw new IOException("count out of int range: " + counts[i]);
+            }
+            res[i] = (int) counts[i];
+        }
+        return res;
+    }
+
+    private static Long[] box(long[] keys) {
+        Long[] res = new Long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            res[i] = keys[i];
+        }
+        return res;
+    }
+}
@@ -0,0 +1,135 @@
+package sparsetable;
+
+/**
+ * 分块的ST表，O(n)空间
+ * <p>
+ * 每BLOCK个数一块，块内存前缀结果和后缀结果，每块的整体结果再建一张ST表，
+ * 这张表只有 n / BLOCK 个元素，占的空间不到n。
+ * 跨块的查询 = 左端所在块的后缀 + 中间整块的ST表查询 + 右端所在块的前缀，O(1)；
+ * 两端在同一块里就直接扫，最多BLOCK个数。
+ * 原数组直接引用不复制，建好之后调用方不要再改它。
+ * 总共大约3n个long，普通ST表是n log n个，n = 1e8时差了快10倍。
+ * <p>
+ * 下标从0开始，区间都是闭区间
+ */
+public class BlockSparseTable {
+
+    private static final int SHIFT = 5;
+    private static final int BLOCK = 1 << SHIFT;
+
+    private final int kind;
+
+    private final int n;
+
+    private final long[] values;
+
+    // prefix[i]是i所在块的开头到i的结果，suffix[i]是i到所在块结尾的结果
+    private final long[] prefix;
+    private final long[] suffix;
+
+    // 各块整体结果上的ST表，只有一块时为null
+    private final long[][] table;
+
+    private BlockSparseTable(long[] values, int kind) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("empty array");
+        }
+        this.kind = kind;
+        this.n = values.length;
+        this.values = values;
+        prefix = new long[n];
+        suffix = new long[n];
+        int blocks = (n + BLOCK - 1) >>> SHIFT;
+        long[] whole = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            int start = b << SHIFT;
+            int end = Math.min(start + BLOCK, n) - 1;
+            prefix[start] = values[start];
+            for (int i = start + 1; i <= end; i++) {
+                prefix[i] = SparseTable.combine(kind, prefix[i - 1], values[i]);
+            }
+            suffix[end] = values[end];
+            for (int i = end - 1; i >= start; i--) {
+                suffix[i] = SparseTable.combine(kind, values[i], suffix[i + 1]);
+            }
+            whole[b] = prefix[end];
+        }
+        if (blocks == 1) {
+            table = null;
+            return;
+        }
+        int levels = SparseTable.log2(blocks) + 1;
+        table = new long[levels][];
+        table[0] = whole;
+        for (int k = 1; k < levels; k++) {
+            long[] prev = table[k - 1];
+            int half = 1 << (k - 1);
+            long[] cur = new long[blocks - (1 << k) + 1];
+            for (int i = 0; i < cur.length; i++) {
+                cur[i] = SparseTable.combine(kind, prev[i], prev[i + half]);
+            }
+            table[k] = cur;
+        }
+    }
+
+    public static BlockSparseTable min(long[] values) {
+        return new BlockSparseTable(values, SparseTable.MIN);
+    }
+
+    public static BlockSparseTable max(long[] values) {
+        return new BlockSparseTable(values, SparseTable.MAX);
+    }
+
+    /**
+     * 区间gcd，结果非负，全是0时是0
+     */
+    public static BlockSparseTable gcd(long[] values) {
+        return new BlockSparseTable(values, SparseTable.GCD);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    private void checkRange(int left, int right) {
+        if (left < 0 || right >= n || left > right) {
+            throw new IndexOutOfBoundsException("Range: [" + left + ", " + right + "], Size: " + n);
+        }
+    }
+
+    /**
+     * [left, right]上的结果
+     */
+    public long query(int left, int right) {
+        checkRange(left, right);
+        int lb = left >>> SHIFT;
+        int rb = right >>> SHIFT;
+        if (lb == rb) {
+            long res = values[left];
+            for (int i = left + 1; i <= right; i++) {
+                res = SparseTable.combine(kind, res, values[i]);
+            }
+            // gcd单个数时也要取绝对值
+            return kind == SparseTable.GCD ? Math.abs(res) : res;
+        }
+        long res = SparseTable.combine(kind, suffix[left], prefix[right]);
+        if (lb + 1 < rb) {
+            int k = SparseTable.log2(rb - lb - 1);
+            long[] level = table[k];
+            res = SparseTable.combine(kind, res, SparseTable.combine(kind, level[lb + 1], level[rb - (1 << k)]));
+        }
+        return res;
+    }
+
+    /**
+     * 批量查询，out[i]是[left[i], right[i]]上的结果
+     */
+    public void query(int[] left, int[] right, long[] out) {
+        if (left.length != right.length || out.length < left.length) {
+            throw new IllegalArgumentException("length mismatch: " + left.length + ", " + right.length + ", " + out.length);
+        }
+        for (int i = 0; i < left.length; i++) {
+            out[i] = query(left[i], right[i]);
+        }
+    }
+}
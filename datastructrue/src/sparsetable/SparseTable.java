@@ -0,0 +1,117 @@
+package sparsetable;
+
+/**
+ * ST表，静态数组上的区间最小值、最大值、gcd
+ * <p>
+ * table[k][i]存[i, i + 2^k - 1]的结果，一共log n层，O(n log n)建表。
+ * 这几种运算都满足 f(x, x) = x，查询[l, r]时取 k = floor(log2(r - l + 1))，
+ * 用两段长2^k、可以重叠的区间 [l, l + 2^k - 1] 和 [r - 2^k + 1, r] 拼起来，O(1)。
+ * 建好之后不能修改，只读的场景下比线段树少了递归和节点对象。
+ * <p>
+ * 下标从0开始，区间都是闭区间
+ */
+public class SparseTable {
+
+    static final int MIN = 0;
+    static final int MAX = 1;
+    static final int GCD = 2;
+
+    private final int kind;
+
+    private final int n;
+
+    private final long[][] table;
+
+    private SparseTable(long[] values, int kind) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("empty array");
+        }
+        this.kind = kind;
+        this.n = values.length;
+        int levels = log2(n) + 1;
+        table = new long[levels][];
+        table[0] = values.clone();
+        for (int k = 1; k < levels; k++) {
+            long[] prev = table[k - 1];
+            int half = 1 << (k - 1);
+            long[] cur = new long[n - (1 << k) + 1];
+            for (int i = 0; i < cur.length; i++) {
+                cur[i] = combine(kind, prev[i], prev[i + half]);
+            }
+            table[k] = cur;
+        }
+    }
+
+    public static SparseTable min(long[] values) {
+        return new SparseTable(values, MIN);
+    }
+
+    public static SparseTable max(long[] values) {
+        return new SparseTable(values, MAX);
+    }
+
+    /**
+     * 区间gcd，结果非负，全是0时是0
+     */
+    public static SparseTable gcd(long[] values) {
+        return new SparseTable(values, GCD);
+    }
+
+    static int log2(int x) {
+        return 31 - Integer.numberOfLeadingZeros(x);
+    }
+
+    static long combine(int kind, long a, long b) {
+        switch (kind) {
+            case MIN:
+                return Math.min(a, b);
+            case MAX:
+                return Math.max(a, b);
+            default:
+                return gcd(a, b);
+        }
+    }
+
+    static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    private void checkRange(int left, int right) {
+        if (left < 0 || right >= n || left > right) {
+            throw new IndexOutOfBoundsException("Range: [" + left + ", " + right + "], Size: " + n);
+        }
+    }
+
+    /**
+     * [left, right]上的结果
+     */
+    public long query(int left, int right) {
+        checkRange(left, right);
+        int k = log2(right - left + 1);
+        long[] level = table[k];
+        return combine(kind, level[left], level[right - (1 << k) + 1]);
+    }
+
+    /**
+     * 批量查询，out[i]是[left[i], right[i]]上的结果
+     */
+    public void query(int[] left, int[] right, long[] out) {
+        if (left.length != right.length || out.length < left.length) {
+            throw new IllegalArgumentException("length mismatch: " + left.length + ", " + right.length + ", " + out.length);
+        }
+        for (int i = 0; i < left.length; i++) {
+            out[i] = query(left[i], right[i]);
+        }
+    }
+}
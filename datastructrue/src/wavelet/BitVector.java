@@ -0,0 +1,80 @@
+package wavelet;
+
+/**
+ * 支持rank的定长位向量
+ * <p>
+ * 位按64个一组压在long[]里，每4个long(256位)记一次前面1的个数，
+ * rank时从最近的记录开始，最多再数3个整long和一个半截long，都用Long.bitCount。
+ * 额外空间是1/8，先set完再调用build算计数，之后只读
+ */
+public class BitVector {
+
+    private static final int WORDS_PER_BLOCK_SHIFT = 2;
+
+    private final int n;
+
+    private final long[] bits;
+
+    // ranks[b]是第b个256位块之前1的个数
+    private final int[] ranks;
+
+    public BitVector(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative size: " + n);
+        }
+        this.n = n;
+        bits = new long[(n + 63) >>> 6];
+        ranks = new int[(bits.length >>> WORDS_PER_BLOCK_SHIFT) + 1];
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public void set(int i) {
+        bits[i >>> 6] |= 1L << i;
+    }
+
+    public boolean get(int i) {
+        return (bits[i >>> 6] >>> i & 1L) != 0;
+    }
+
+    /**
+     * set完之后调用一次，算好每块之前1的个数
+     */
+    public void build() {
+        int count = 0;
+        for (int w = 0; w < bits.length; w++) {
+            if ((w & ((1 << WORDS_PER_BLOCK_SHIFT) - 1)) == 0) {
+                ranks[w >>> WORDS_PER_BLOCK_SHIFT] = count;
+            }
+            count += Long.bitCount(bits[w]);
+        }
+        // 长度正好是整块时，最后一项在循环里没填到
+        if ((bits.length & ((1 << WORDS_PER_BLOCK_SHIFT) - 1)) == 0) {
+            ranks[bits.length >>> WORDS_PER_BLOCK_SHIFT] = count;
+        }
+    }
+
+    /**
+     * [0, i)中1的个数
+     */
+    public int rank1(int i) {
+        int w = i >>> 6;
+        int res = ranks[w >>> WORDS_PER_BLOCK_SHIFT];
+        for (int j = w & ~((1 << WORDS_PER_BLOCK_SHIFT) - 1); j < w; j++) {
+            res += Long.bitCount(bits[j]);
+        }
+        if ((i & 63) != 0) {
+            res += Long.bitCount(bits[w] & ((1L << i) - 1));
+        }
+        return res;
+    }
+
+    /**
+     * [0, i)中0的个数
+     */
+    public int rank0(int i) {
+        return i - rank1(i);
+    }
+}
@@ -0,0 +1,217 @@
+package wavelet;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 静态int数组上的Wavelet Matrix，回答"位置区间里的第k小"、"位置区间里落在值域[a, b]的数有几个"
+ * <p>
+ * 值先减去最小值变成非负数，共有 L = 值域的位数 层，从最高位往下。
+ * 每层一个BitVector记录当前序列每个数这一位是不是1，然后把这一位是0的稳定地排到前面、1的排到后面，
+ * 作为下一层的序列。位置区间[l, r)在这一层是0的部分对应下一层的 [rank0(l), rank0(r))，
+ * 是1的部分对应 [zeros + rank1(l), zeros + rank1(r))，每层两次rank，查询都是O(L)。
+ * 空间是 n * L 位再加1/8的rank计数，建好之后只读。
+ * <p>
+ * 位置下标从0开始，区间都是闭区间；kth的k和rankOf的返回值和树里一样从1开始
+ */
+public class WaveletMatrix {
+
+    private final int n;
+
+    // 所有值减去min之后在[0, 2^levels)中
+    private final long min;
+
+    // 最大值，查询的long边界先和min、max比较再做减法，不会溢出
+    private final long max;
+
+    private final int levels;
+
+    // layers[d]对应第 levels - 1 - d 位
+    private final BitVector[] layers;
+
+    // zeros[d]是第d层0的个数
+    private final int[] zeros;
+
+    /**
+     * @param values 原数组，不会被修改
+     */
+    public WaveletMatrix(int[] values) {
+        this.n = values.length;
+        long lo = 0L, hi = 0L;
+        if (n > 0) {
+            lo = Integer.MAX_VALUE;
+            hi = Integer.MIN_VALUE;
+            for (int v : values) {
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+            }
+        }
+        this.min = lo;
+        this.max = hi;
+        this.levels = Math.max(1, 64 - Long.numberOfLeadingZeros(hi - lo));
+        layers = new BitVector[levels];
+        zeros = new int[levels];
+
+        // 减去min后按无符号int存，最多32位
+        int[] cur = new int[n];
+        for (int i = 0; i < n; i++) {
+            cur[i] = (int) (values[i] - min);
+        }
+        int[] next = new int[n];
+        for (int d = 0; d < levels; d++) {
+            int bit = levels - 1 - d;
+            BitVector layer = new BitVector(n);
+            int zeroCount = 0;
+            for (int i = 0; i < n; i++) {
+                if ((cur[i] >>> bit & 1) == 0) {
+                    zeroCount++;
+                } else {
+                    layer.set(i);
+                }
+            }
+            layer.build();
+            int z = 0, o = zeroCount;
+            for (int i = 0; i < n; i++) {
+                if ((cur[i] >>> bit & 1) == 0) {
+                    next[z++] = cur[i];
+                } else {
+                    next[o++] = cur[i];
+                }
+            }
+            layers[d] = layer;
+            zeros[d] = zeroCount;
+            int[] tmp = cur;
+            cur = next;
+            next = tmp;
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    private void checkRange(int left, int right) {
+        if (left < 0 || right >= n || left > right) {
+            throw new IndexOutOfBoundsException("Range: [" + left + ", " + right + "], Size: " + n);
+        }
+    }
+
+    /**
+     * 位置i上的值
+     */
+    public int get(int i) {
+        if (i < 0 || i >= n) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + n);
+        }
+        int res = 0;
+        for (int d = 0; d < levels; d++) {
+            BitVector layer = layers[d];
+            if (layer.get(i)) {
+                res |= 1 << (levels - 1 - d);
+                i = zeros[d] + layer.rank1(i);
+            } else {
+                i = layer.rank0(i);
+            }
+        }
+        return (int) (res + min);
+    }
+
+    /**
+     * 位置[left, right]中排名为k的值(从小到大)
+     *
+     * @param k 排名，从1开始
+     * @return 值
+     * @throws NoSuchElementException k不在[1, right - left + 1]中
+     */
+    public int kth(int left, int right, int k) {
+        checkRange(left, right);
+        if (k < 1 || k > right - left + 1) {
+            throw new NoSuchElementException("k: " + k + ", Range size: " + (right - left + 1));
+        }
+        int l = left, r = right + 1;
+        k--;
+        int res = 0;
+        for (int d = 0; d < levels; d++) {
+            BitVector layer = layers[d];
+            int l0 = layer.rank0(l), r0 = layer.rank0(r);
+            if (k < r0 - l0) {
+                l = l0;
+                r = r0;
+            } else {
+                k -= r0 - l0;
+                res |= 1 << (levels - 1 - d);
+                l = zeros[d] + l - l0;
+                r = zeros[d] + r - r0;
+            }
+        }
+        return (int) (res + min);
+    }
+
+    /**
+     * 位置[left, right]中小于x的数的个数
+     */
+    public int countLess(int left, int right, long x) {
+        checkRange(left, right);
+        return countLess0(left, right + 1, x);
+    }
+
+    // 半开区间[l, r)
+    private int countLess0(int l, int r, long x) {
+        if (x <= min) {
+            return 0;
+        }
+        if (x > max) {
+            return r - l;
+        }
+        // min < x <= max，都在int范围里
+        long t = x - min;
+        int res = 0;
+        for (int d = 0; d < levels; d++) {
+            BitVector layer = layers[d];
+            int l0 = layer.rank0(l), r0 = layer.rank0(r);
+            if ((t >>> (levels - 1 - d) & 1L) == 0) {
+                l = l0;
+                r = r0;
+            } else {
+                res += r0 - l0;
+                l = zeros[d] + l - l0;
+                r = zeros[d] + r - r0;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * 位置[left, right]中值落在[lo, hi]的数的个数
+     *
+     * @param lo 下界，包含
+     * @param hi 上界，包含
+     */
+    public int countInRange(int left, int right, long lo, long hi) {
+        checkRange(left, right);
+        if (lo > hi || hi < min || lo > max) {
+            return 0;
+        }
+        // hi >= max时hi + 1可能溢出，直接算全部
+        int notAbove = hi >= max ? right + 1 - left : countLess0(left, right + 1, hi + 1);
+        return notAbove - countLess0(left, right + 1, lo);
+    }
+
+    /**
+     * 位置[left, right]中x出现的次数
+     */
+    public int count(int left, int right, int x) {
+        return countInRange(left, right, x, x);
+    }
+
+    /**
+     * x在位置[left, right]中第一次出现的排名
+     *
+     * @return 排名，从1开始，x不存在返回0，和树的rank一致
+     */
+    public int rankOf(int left, int right, int x) {
+        checkRange(left, right);
+        int less = countLess0(left, right + 1, x);
+        int lessOrEqual = countLess0(left, right + 1, (long) x + 1);
+        return lessOrEqual > less ? less + 1 : 0;
+    }
+}